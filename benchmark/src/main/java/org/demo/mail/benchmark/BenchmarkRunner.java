@@ -0,0 +1,23 @@
+package org.demo.mail.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the benchmarks with the GC profiler (allocation rate per operation) <br>
+ * Optional argument : regular expression selecting the benchmarks to run 
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : "org.demo.mail.benchmark.*" ;
+		Options options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,30 @@
+package org.demo.mail.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.demo.mail.receiver.MailAttachment;
+import org.demo.mail.receiver.MailReceiverException;
+import org.demo.mail.receiver.attachment.AttachmentStore;
+
+/**
+ * Attachment store decoding the attachments without writing them (measures the parsing, not the disk)
+ */
+public class DiscardingAttachmentStore implements AttachmentStore {
+
+	private final byte[] buffer = new byte[64 * 1024];
+	
+	@Override
+	public synchronized MailAttachment store(String messageId, String fileName, String contentType, InputStream inputStream) throws MailReceiverException {
+		long size = 0 ;
+		try ( InputStream in = inputStream ) {
+			int n ;
+			while ( ( n = in.read(buffer) ) >= 0 ) {
+				size += n ;
+			}
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot read attachment " + fileName, e);
+		}
+		return new MailAttachment(fileName, contentType, size, null, null);
+	}
+}
@@ -0,0 +1,74 @@
+package org.demo.mail.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.demo.mail.benchmark.MimeCorpus.Shape;
+import org.demo.mail.receiver.MailMessage;
+import org.demo.mail.receiver.MailReceiverException;
+import org.demo.mail.receiver.builder.MailMessageBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Benchmarks for 'MailMessageBuilder' : header extraction and full build (MIME parsing + attachments decoding) <br>
+ * Each invocation parses a new 'MimeMessage' from the raw bytes (as a message freshly downloaded) <br>
+ * Modes : throughput and sample time (latency percentiles)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MailMessageBuilderBenchmark {
+
+	@Param({"TEXT_PLAIN", "ALTERNATIVE", "RELATED_INLINE_IMAGES", "MIXED_ATTACHMENTS"})
+	private Shape shape ;
+	
+	@Param({"4096"})
+	private int bodySize ;
+	
+	@Param({"1048576"})
+	private int attachmentSize ;
+	
+	private byte[] raw ;
+	
+	private MailMessageBuilder builder ;
+	
+	private DiscardingAttachmentStore attachmentStore ;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		raw = MimeCorpus.build(shape, 1, bodySize, attachmentSize);
+		builder = new MailMessageBuilder();
+		attachmentStore = new DiscardingAttachmentStore();
+	}
+	
+	@Benchmark
+	public MailMessage buildMailMessageHeader() {
+		MimeMessage message = MimeCorpus.parse(raw);
+		return builder.buildMailMessageHeader(message);
+	}
+	
+	@Benchmark
+	public void buildMailMessage(Blackhole blackhole) throws MailReceiverException {
+		MimeMessage message = MimeCorpus.parse(raw);
+		MailMessage mailMessage = builder.buildMailMessage(message, attachmentStore);
+		blackhole.consume(mailMessage.getBody());
+		blackhole.consume(mailMessage.getBodyHtml());
+		blackhole.consume(mailMessage.getAttachments());
+	}
+}
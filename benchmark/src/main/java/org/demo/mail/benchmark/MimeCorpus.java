@@ -0,0 +1,167 @@
+package org.demo.mail.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+/**
+ * Synthetic corpus of MIME messages built in memory (no server, no file) 
+ */
+public class MimeCorpus {
+
+	/**
+	 * Message shapes (as parsed by the receiver)
+	 */
+	public enum Shape {
+		/** text/plain only */
+		TEXT_PLAIN,
+		/** multipart/alternative : text/plain + text/html */
+		ALTERNATIVE,
+		/** multipart/related : multipart/alternative + inline images */
+		RELATED_INLINE_IMAGES,
+		/** multipart/mixed : multipart/alternative + attachments */
+		MIXED_ATTACHMENTS
+	}
+	
+	private static final Session SESSION = Session.getInstance(new Properties());
+	
+	private static final String WORDS[] = { "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", 
+			"sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua" };
+	
+	private MimeCorpus() {
+	}
+	
+	public static Session getSession() {
+		return SESSION;
+	}
+	
+	/**
+	 * Builds a raw RFC 822 message 
+	 * @param shape
+	 * @param number message number (used for the message id and the random content)
+	 * @param bodySize approximate size of the text body (chars)
+	 * @param attachmentSize size of each attachment or inline image (bytes)
+	 * @return
+	 */
+	public static byte[] build(Shape shape, int number, int bodySize, int attachmentSize) {
+		try {
+			Random random = new Random(number);
+			MimeMessage message = new MimeMessage(SESSION);
+			message.setFrom(new InternetAddress("sender" + (number % 17) + "@example.org"));
+			message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("user@example.com, other@example.com"));
+			message.setRecipients(Message.RecipientType.CC, InternetAddress.parse("copy" + (number % 5) + "@example.net"));
+			message.setSubject("Message #" + number + " " + shape);
+			message.setSentDate(new Date(1_600_000_000_000L + number * 60_000L));
+			String text = text(random, bodySize);
+			switch (shape) {
+			case TEXT_PLAIN:
+				message.setText(text, "UTF-8");
+				break;
+			case ALTERNATIVE:
+				message.setContent(alternative(text));
+				break;
+			case RELATED_INLINE_IMAGES:
+				message.setContent(related(text, random, attachmentSize));
+				break;
+			case MIXED_ATTACHMENTS:
+				MimeMultipart mixed = new MimeMultipart("mixed");
+				mixed.addBodyPart(bodyPart(alternative(text)));
+				mixed.addBodyPart(binaryPart(random, attachmentSize, "application/pdf", "document-" + number + ".pdf"));
+				mixed.addBodyPart(binaryPart(random, attachmentSize / 4, "image/png", "image-" + number + ".png"));
+				message.setContent(mixed);
+				break;
+			default:
+				throw new IllegalArgumentException("unexpected shape " + shape);
+			}
+			message.saveChanges();
+			message.setHeader("Message-ID", "<" + number + "." + shape + "@bench.example.org>");
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			message.writeTo(out);
+			return out.toByteArray();
+		} catch (MessagingException | IOException e) {
+			throw new IllegalStateException("Cannot build message", e);
+		}
+	}
+	
+	/**
+	 * Parses a raw message (the content is parsed on demand by Jakarta Mail)
+	 * @param raw
+	 * @return
+	 */
+	public static MimeMessage parse(byte[] raw) {
+		try {
+			return new MimeMessage(SESSION, new ByteArrayInputStream(raw));
+		} catch (MessagingException e) {
+			throw new IllegalStateException("Cannot parse message", e);
+		}
+	}
+	
+	private static MimeMultipart alternative(String text) throws MessagingException {
+		MimeMultipart alternative = new MimeMultipart("alternative");
+		MimeBodyPart textPart = new MimeBodyPart();
+		textPart.setText(text, "UTF-8");
+		alternative.addBodyPart(textPart);
+		MimeBodyPart htmlPart = new MimeBodyPart();
+		htmlPart.setText("<html><body><p>" + text.replace("\n", "</p><p>") + "</p></body></html>", "UTF-8", "html");
+		alternative.addBodyPart(htmlPart);
+		return alternative;
+	}
+	
+	private static MimeMultipart related(String text, Random random, int imageSize) throws MessagingException {
+		MimeMultipart related = new MimeMultipart("related");
+		related.addBodyPart(bodyPart(alternative(text)));
+		for ( int i = 0 ; i < 2 ; i++ ) {
+			MimeBodyPart image = binaryPart(random, imageSize, "image/png", "inline-" + i + ".png");
+			image.setContentID("<img" + i + "@bench>");
+			image.setDisposition(MimeBodyPart.INLINE);
+			related.addBodyPart(image);
+		}
+		return related;
+	}
+	
+	private static MimeBodyPart bodyPart(MimeMultipart multipart) throws MessagingException {
+		MimeBodyPart part = new MimeBodyPart();
+		part.setContent(multipart);
+		return part;
+	}
+	
+	private static MimeBodyPart binaryPart(Random random, int size, String contentType, String fileName) throws MessagingException {
+		byte[] bytes = new byte[size];
+		random.nextBytes(bytes);
+		MimeBodyPart part = new MimeBodyPart();
+		part.setDataHandler(new DataHandler(new ByteArrayDataSource(bytes, contentType)));
+		part.setFileName(fileName);
+		part.setDisposition(MimeBodyPart.ATTACHMENT);
+		return part;
+	}
+	
+	private static String text(Random random, int size) {
+		StringBuilder sb = new StringBuilder(size + 16);
+		int line = 0 ;
+		while ( sb.length() < size ) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			sb.append(word);
+			line += word.length() + 1 ;
+			if ( line > 70 ) {
+				sb.append('\n');
+				line = 0 ;
+			} else {
+				sb.append(' ');
+			}
+		}
+		return sb.toString();
+	}
+}
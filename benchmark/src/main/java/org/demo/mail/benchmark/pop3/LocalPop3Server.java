@@ -0,0 +1,383 @@
+package org.demo.mail.benchmark.pop3;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process POP3 server ( RFC 1939 ) serving a 'SyntheticMailbox' <br>
+ * Commands : CAPA, USER, PASS (any password), STAT, LIST, UIDL, TOP, RETR, DELE, NOOP, RSET, QUIT <br>
+ * The deleted messages are removed from the mailbox at "QUIT" (as a real server). <br>
+ * An optional latency simulates a remote server : each response is sent 'latency' after the reception of its command 
+ * (a round trip). The commands are received by a dedicated reader, so pipelined commands are delayed together 
+ * (one round trip per batch) while lock-step commands are delayed one by one. 
+ */
+public class LocalPop3Server implements AutoCloseable {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	
+	private final SyntheticMailbox mailbox ;
+	private final long latencyMillis ;
+	private final boolean pipelining ;
+	private final ServerSocket serverSocket ;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	
+	/**
+	 * Starts a server on a free port of the loopback interface 
+	 * @param mailbox
+	 * @param latencyMillis delay between the reception of a command and its response (0 for none)
+	 * @param pipelining true to advertise the "PIPELINING" capability ( RFC 2449 )
+	 * @throws IOException
+	 */
+	public LocalPop3Server(SyntheticMailbox mailbox, long latencyMillis, boolean pipelining) throws IOException {
+		super();
+		this.mailbox = mailbox;
+		this.latencyMillis = latencyMillis;
+		this.pipelining = pipelining;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		executor.execute(this::acceptLoop);
+	}
+	
+	public String getHost() {
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	public long getCommands() {
+		return commands.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	private void acceptLoop() {
+		while ( ! serverSocket.isClosed() ) {
+			try {
+				Socket socket = serverSocket.accept();
+				executor.execute(() -> serve(socket));
+			} catch (IOException e) {
+				// server closed
+			}
+		}
+	}
+	
+	private void serve(Socket socket) {
+		try ( Socket s = socket ) {
+			s.setTcpNoDelay(true);
+			new Session(s).run();
+		} catch (SocketException e) {
+			// client disconnected 
+		} catch (IOException e) {
+			// client error : session aborted
+		}
+	}
+	
+	/**
+	 * A command line with its reception time
+	 */
+	private static class ReceivedCommand {
+		private final String line ;
+		private final long receptionNanos ;
+		
+		private ReceivedCommand(String line, long receptionNanos) {
+			this.line = line;
+			this.receptionNanos = receptionNanos;
+		}
+	}
+	
+	// end of the commands (connection closed by the client)
+	private static final ReceivedCommand END = new ReceivedCommand(null, 0);
+	
+	/**
+	 * A POP3 session (one per connection) 
+	 */
+	private class Session {
+		private final BufferedReader in ;
+		private final OutputStream out ;
+		// commands received and not yet executed
+		private final BlockingQueue<ReceivedCommand> received = new LinkedBlockingQueue<>();
+		private List<MailboxMessage> messages = null ; // null in AUTHORIZATION state
+		private final BitSet deleted = new BitSet();
+		
+		private Session(Socket socket) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+		}
+		
+		private void run() throws IOException {
+			long connectionNanos = System.nanoTime();
+			executor.execute(this::receive);
+			latency(connectionNanos);
+			ok("POP3 server ready");
+			out.flush();
+			try {
+				ReceivedCommand receivedCommand ;
+				while ( ( receivedCommand = received.take() ) != END ) {
+					commands.incrementAndGet();
+					latency(receivedCommand.receptionNanos);
+					if ( ! command(receivedCommand.line.trim()) ) {
+						break;
+					}
+					// responses to pipelined commands are flushed together
+					if ( received.isEmpty() ) {
+						out.flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			out.flush();
+		}
+		
+		/**
+		 * Reads the commands as soon as they arrive (executed by 'run' after the latency)
+		 */
+		private void receive() {
+			try {
+				String line ;
+				while ( ( line = in.readLine() ) != null ) {
+					received.add(new ReceivedCommand(line, System.nanoTime()));
+				}
+			} catch (IOException e) {
+				// connection closed 
+			}
+			received.add(END);
+		}
+		
+		private boolean command(String line) throws IOException {
+			String[] args = line.split(" ");
+			String command = args[0].toUpperCase();
+			switch (command) {
+			case "CAPA":
+				ok("Capability list follows");
+				line("USER");
+				line("UIDL");
+				line("TOP");
+				if ( pipelining ) {
+					line("PIPELINING");
+				}
+				end();
+				return true;
+			case "USER":
+				ok("user accepted");
+				return true;
+			case "PASS":
+				messages = mailbox.snapshot();
+				ok("maildrop locked and ready");
+				return true;
+			case "QUIT":
+				if ( messages != null ) {
+					List<MailboxMessage> toRemove = new ArrayList<>();
+					for ( int i = deleted.nextSetBit(0) ; i >= 0 ; i = deleted.nextSetBit(i + 1) ) {
+						toRemove.add(messages.get(i));
+					}
+					mailbox.remove(toRemove);
+				}
+				ok("bye");
+				return false;
+			default:
+				if ( messages == null ) {
+					err("not authenticated");
+				} else {
+					transaction(command, args);
+				}
+				return true;
+			}
+		}
+		
+		private void transaction(String command, String[] args) throws IOException {
+			switch (command) {
+			case "STAT":
+				int count = 0 ;
+				long size = 0 ;
+				for ( int i = 0 ; i < messages.size() ; i++ ) {
+					if ( ! deleted.get(i) ) {
+						count++;
+						size += messages.get(i).getSize();
+					}
+				}
+				ok(count + " " + size);
+				break;
+			case "LIST":
+			case "UIDL":
+				boolean uidl = command.equals("UIDL");
+				if ( args.length > 1 ) {
+					int n = messageIndex(args[1]);
+					if ( n >= 0 ) {
+						MailboxMessage m = messages.get(n);
+						ok((n + 1) + " " + ( uidl ? m.getUid() : String.valueOf(m.getSize()) ));
+					}
+				} else {
+					ok("list follows");
+					for ( int i = 0 ; i < messages.size() ; i++ ) {
+						if ( ! deleted.get(i) ) {
+							MailboxMessage m = messages.get(i);
+							line((i + 1) + " " + ( uidl ? m.getUid() : String.valueOf(m.getSize()) ));
+						}
+					}
+					end();
+				}
+				break;
+			case "RETR":
+				if ( args.length > 1 ) {
+					int n = messageIndex(args[1]);
+					if ( n >= 0 ) {
+						MailboxMessage m = messages.get(n);
+						ok(m.getSize() + " octets");
+						writeMessage(m.getRaw(), -1);
+						end();
+					}
+				} else {
+					err("message number required");
+				}
+				break;
+			case "TOP":
+				if ( args.length > 2 ) {
+					int n = messageIndex(args[1]);
+					if ( n >= 0 ) {
+						ok("top of message follows");
+						writeMessage(messages.get(n).getRaw(), Integer.parseInt(args[2]));
+						end();
+					}
+				} else {
+					err("message number and line count required");
+				}
+				break;
+			case "DELE":
+				if ( args.length > 1 ) {
+					int n = messageIndex(args[1]);
+					if ( n >= 0 ) {
+						deleted.set(n);
+						ok("message " + (n + 1) + " deleted");
+					}
+				} else {
+					err("message number required");
+				}
+				break;
+			case "NOOP":
+				ok("");
+				break;
+			case "RSET":
+				deleted.clear();
+				ok("");
+				break;
+			default:
+				err("unknown command " + command);
+			}
+		}
+		
+		/**
+		 * Returns the index of the given message number (or -1 after sending an error)
+		 */
+		private int messageIndex(String arg) throws IOException {
+			try {
+				int n = Integer.parseInt(arg) - 1 ;
+				if ( n >= 0 && n < messages.size() && ! deleted.get(n) ) {
+					return n;
+				}
+			} catch (NumberFormatException e) {
+				// invalid number
+			}
+			err("no such message");
+			return -1;
+		}
+		
+		/**
+		 * Writes the message with dot-stuffing 
+		 * @param raw
+		 * @param bodyLines number of body lines for "TOP" (-1 for the whole message)
+		 * @throws IOException
+		 */
+		private void writeMessage(byte[] raw, int bodyLines) throws IOException {
+			int lineStart = 0 ;
+			boolean inBody = false ;
+			int bodyLinesWritten = 0 ;
+			for ( int i = 0 ; i < raw.length ; i++ ) {
+				if ( raw[i] == '\n' || i == raw.length - 1 ) {
+					int lineEnd = ( raw[i] == '\n' ) ? i + 1 : raw.length ;
+					if ( inBody && bodyLines >= 0 && bodyLinesWritten >= bodyLines ) {
+						break;
+					}
+					if ( raw[lineStart] == '.' ) {
+						out.write('.');
+					}
+					out.write(raw, lineStart, lineEnd - lineStart);
+					bytesSent.addAndGet(lineEnd - lineStart);
+					int length = lineEnd - lineStart ;
+					if ( inBody ) {
+						bodyLinesWritten++;
+					} else if ( length <= 2 && ( raw[lineStart] == '\r' || raw[lineStart] == '\n' ) ) {
+						inBody = true ; // empty line : end of the headers
+					}
+					lineStart = lineEnd ;
+				}
+			}
+			if ( raw.length > 0 && raw[raw.length - 1] != '\n' ) {
+				out.write(CRLF);
+			}
+		}
+		
+		/**
+		 * Waits until the response time of a command received at the given time 
+		 * @param receptionNanos
+		 */
+		private void latency(long receptionNanos) {
+			if ( latencyMillis > 0 ) {
+				long remainingNanos = receptionNanos + TimeUnit.MILLISECONDS.toNanos(latencyMillis) - System.nanoTime() ;
+				if ( remainingNanos > 0 ) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(remainingNanos);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+		
+		private void ok(String s) throws IOException {
+			line("+OK " + s);
+		}
+		
+		private void err(String s) throws IOException {
+			line("-ERR " + s);
+		}
+		
+		private void end() throws IOException {
+			line(".");
+		}
+		
+		private void line(String s) throws IOException {
+			out.write(s.getBytes(StandardCharsets.US_ASCII));
+			out.write(CRLF);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+}
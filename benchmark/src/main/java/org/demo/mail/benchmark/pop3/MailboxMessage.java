@@ -0,0 +1,28 @@
+package org.demo.mail.benchmark.pop3;
+
+/**
+ * A raw message stored in a synthetic mailbox 
+ */
+public class MailboxMessage {
+
+	private final String uid ;
+	private final byte[] raw ;
+	
+	public MailboxMessage(String uid, byte[] raw) {
+		super();
+		this.uid = uid;
+		this.raw = raw;
+	}
+
+	public String getUid() {
+		return uid;
+	}
+
+	public byte[] getRaw() {
+		return raw;
+	}
+
+	public int getSize() {
+		return raw.length;
+	}
+}
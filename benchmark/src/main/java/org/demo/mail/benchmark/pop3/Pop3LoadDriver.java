@@ -0,0 +1,109 @@
+package org.demo.mail.benchmark.pop3;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.demo.mail.benchmark.DiscardingAttachmentStore;
+import org.demo.mail.receiver.MailAccount;
+import org.demo.mail.receiver.MailMessage;
+import org.demo.mail.receiver.MailMessageProcessor;
+import org.demo.mail.receiver.MailReceiver;
+import org.demo.mail.receiver.metrics.Histogram;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
+import org.demo.mail.receiver.metrics.SimpleMailReceiverMetrics;
+
+/**
+ * Load test : runs 'MailReceiver' against a 'LocalPop3Server' and reports the throughput and the latencies <br>
+ * Arguments (all optional) : messageCount latencyMillis processingWorkers processingMillis maxAttachmentSize pipelining deleteMessages <br>
+ * - pipelining : true (default) to advertise and use the "PIPELINING" capability, false for the lock-step baseline <br>
+ * - deleteMessages : true to delete the messages received (default = false) <br>
+ * Example : java -cp target/benchmarks.jar org.demo.mail.benchmark.pop3.Pop3LoadDriver 1000 20 4 5 1048576 false true
+ */
+public class Pop3LoadDriver {
+
+	private static int intArg(String[] args, int i, int defaultValue) {
+		return args.length > i ? Integer.parseInt(args[i]) : defaultValue ;
+	}
+	
+	private static boolean booleanArg(String[] args, int i, boolean defaultValue) {
+		return args.length > i ? Boolean.parseBoolean(args[i]) : defaultValue ;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int messageCount      = intArg(args, 0, 1000);
+		int latencyMillis     = intArg(args, 1, 0);
+		int processingWorkers = intArg(args, 2, 1);
+		int processingMillis  = intArg(args, 3, 0);
+		int maxAttachmentSize = intArg(args, 4, 256 * 1024);
+		boolean pipelining     = booleanArg(args, 5, true);
+		boolean deleteMessages = booleanArg(args, 6, false);
+		
+		System.out.println("Building mailbox : " + messageCount + " messages...");
+		SyntheticMailbox mailbox = SyntheticMailbox.config()
+				.messageCount(messageCount)
+				.attachmentSize(1024, Math.max(1024, maxAttachmentSize))
+				.build();
+		long mailboxBytes = mailbox.totalBytes();
+		
+		try ( LocalPop3Server server = new LocalPop3Server(mailbox, latencyMillis, pipelining) ) {
+			Properties properties = new Properties();
+			properties.put("mail.pop3.host", server.getHost());
+			properties.put("mail.pop3.port", String.valueOf(server.getPort()));
+			
+			SimpleMailReceiverMetrics metrics = new SimpleMailReceiverMetrics();
+			MailReceiver mailReceiver = new MailReceiver(properties, new DiscardingAttachmentStore(), 
+					new LoadProcessor(processingMillis));
+			mailReceiver.setMetrics(metrics);
+			mailReceiver.setProcessingWorkers(processingWorkers);
+			mailReceiver.setPipelining(pipelining);
+			
+			long start = System.nanoTime();
+			int processed = mailReceiver.receiveMessages(new MailAccount("user", "password"), deleteMessages);
+			long elapsedNanos = System.nanoTime() - start;
+			
+			report(processed, mailboxBytes, elapsedNanos, metrics, server);
+		}
+	}
+	
+	private static void report(int processed, long mailboxBytes, long elapsedNanos, 
+			SimpleMailReceiverMetrics metrics, LocalPop3Server server) {
+		double seconds = elapsedNanos / 1e9 ;
+		System.out.println("=============================================================");
+		System.out.printf("messages processed : %d in %.3f s%n", processed, seconds);
+		System.out.printf("throughput         : %.1f messages/s , %.2f MB/s (mailbox %d bytes)%n", 
+				processed / seconds, mailboxBytes / seconds / (1024 * 1024), mailboxBytes);
+		System.out.printf("server             : %d commands, %d bytes sent%n", server.getCommands(), server.getBytesSent());
+		System.out.println("latencies (ms)     :       count      mean       p50       p99       max");
+		for ( Phase phase : Phase.values() ) {
+			Histogram h = metrics.getTimer(phase);
+			System.out.printf("  %-16s : %10d %9.3f %9.3f %9.3f %9.3f%n", phase, h.getCount(), 
+					h.getMean() / 1e6, h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6);
+		}
+		System.out.println("parts              : " + metrics.getPartsByMimeType());
+	}
+	
+	/**
+	 * Processor reading the whole content (body, html, attachments) with an optional simulated latency
+	 */
+	private static class LoadProcessor implements MailMessageProcessor {
+		private final long processingMillis ;
+		
+		private LoadProcessor(long processingMillis) {
+			this.processingMillis = processingMillis;
+		}
+
+		@Override
+		public boolean processMessage(MailMessage mailMessage) {
+			mailMessage.getBody();
+			mailMessage.getAttachments();
+			if ( processingMillis > 0 ) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(processingMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return true;
+		}
+	}
+}
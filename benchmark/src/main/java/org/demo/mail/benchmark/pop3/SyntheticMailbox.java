@@ -0,0 +1,132 @@
+package org.demo.mail.benchmark.pop3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.demo.mail.benchmark.MimeCorpus;
+import org.demo.mail.benchmark.MimeCorpus.Shape;
+
+/**
+ * Mailbox filled with synthetic messages ( see 'MimeCorpus' ) : <br>
+ * - the MIME shape of each message is chosen randomly according to the weights <br>
+ * - the attachment size follows a log-uniform distribution between min and max (many small, few large) <br>
+ * The same seed always produces the same mailbox. 
+ */
+public class SyntheticMailbox {
+
+	private final List<MailboxMessage> messages = new ArrayList<>();
+	
+	private int nextNumber = 1 ;
+	
+	/**
+	 * Builder for the mailbox configuration
+	 */
+	public static class Config {
+		private int messageCount = 100 ;
+		private int bodySize = 2048 ;
+		private int minAttachmentSize = 1024 ;
+		private int maxAttachmentSize = 1024 * 1024 ;
+		private final int[] shapeWeights = { 4, 3, 2, 1 } ; // by Shape ordinal
+		private long seed = 42 ;
+		
+		public Config messageCount(int messageCount) {
+			this.messageCount = messageCount;
+			return this;
+		}
+		public Config bodySize(int bodySize) {
+			this.bodySize = bodySize;
+			return this;
+		}
+		public Config attachmentSize(int min, int max) {
+			if ( min < 1 || max < min ) {
+				throw new IllegalArgumentException("invalid attachment size range");
+			}
+			this.minAttachmentSize = min;
+			this.maxAttachmentSize = max;
+			return this;
+		}
+		public Config shapeWeight(Shape shape, int weight) {
+			this.shapeWeights[shape.ordinal()] = weight;
+			return this;
+		}
+		public Config seed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+		public SyntheticMailbox build() {
+			return new SyntheticMailbox(this);
+		}
+	}
+	
+	public static Config config() {
+		return new Config();
+	}
+	
+	private SyntheticMailbox(Config config) {
+		Random random = new Random(config.seed);
+		int totalWeight = 0 ;
+		for ( int w : config.shapeWeights ) {
+			totalWeight += w ;
+		}
+		if ( totalWeight <= 0 ) {
+			throw new IllegalArgumentException("no shape selected");
+		}
+		double logMin = Math.log(config.minAttachmentSize);
+		double logMax = Math.log(config.maxAttachmentSize);
+		for ( int i = 0 ; i < config.messageCount ; i++ ) {
+			Shape shape = pickShape(random.nextInt(totalWeight), config.shapeWeights);
+			int attachmentSize = (int) Math.exp(logMin + random.nextDouble() * (logMax - logMin));
+			add(MimeCorpus.build(shape, nextNumber, config.bodySize, attachmentSize));
+		}
+	}
+	
+	private static Shape pickShape(int r, int[] weights) {
+		Shape[] shapes = Shape.values();
+		for ( int i = 0 ; i < shapes.length ; i++ ) {
+			r -= weights[i];
+			if ( r < 0 ) {
+				return shapes[i];
+			}
+		}
+		return shapes[shapes.length - 1];
+	}
+	
+	/**
+	 * Adds a raw message in the mailbox 
+	 * @param raw
+	 */
+	public synchronized void add(byte[] raw) {
+		messages.add(new MailboxMessage("uid-" + nextNumber, raw));
+		nextNumber++;
+	}
+	
+	/**
+	 * Returns a copy of the current messages (the view of a POP3 session)
+	 * @return
+	 */
+	public synchronized List<MailboxMessage> snapshot() {
+		return new ArrayList<>(messages);
+	}
+	
+	/**
+	 * Removes the given messages (deleted by a POP3 session)
+	 * @param deleted
+	 */
+	public synchronized void remove(Collection<MailboxMessage> deleted) {
+		messages.removeAll(deleted);
+	}
+	
+	public synchronized int size() {
+		return messages.size();
+	}
+	
+	public synchronized long totalBytes() {
+		long total = 0 ;
+		for ( MailboxMessage message : messages ) {
+			total += message.getSize();
+		}
+		return total;
+	}
+}
@@ -1,12 +1,12 @@
 package org.demo.app;
 
-import java.io.File;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 
 import org.demo.app.processor.MessageProcessorImpl;
 import org.demo.mail.receiver.MailAccount;
+import org.demo.mail.receiver.MailAttachment;
 import org.demo.mail.receiver.MailMessage;
 import org.demo.mail.receiver.MailReceiver;
 import org.demo.mail.receiver.MailReceiverException;
@@ -43,7 +43,8 @@ public class App {
 		System.out.println("Main : mailReceiver.readMessages(user,password)...");
 		List<MailMessage> messages = new LinkedList<MailMessage>();
 		try {
-			//mailReceiver.receiveMessages("user", "password");
+			// streaming mode (messages are not kept in memory) :
+			// mailReceiver.receiveMessages(mailAccount, MailReceiver.DO_NOT_DELETE_MSG);
 			// or 
 			messages = mailReceiver.readMessages(mailAccount, MailReceiver.DO_NOT_DELETE_MSG );
 		} catch (MailReceiverException e) {
@@ -64,8 +65,8 @@ public class App {
 			System.out.println("BODY HTML : \n" + msg.getBodyHtml()  );
 			if ( msg.hasAttachments() ) {
 				System.out.println("ATTACHMENTS : ");
-				for ( File a : msg.getAttachments() ) {
-					System.out.println(" . " + a.getAbsolutePath() );
+				for ( MailAttachment a : msg.getAttachments() ) {
+					System.out.println(" . " + a.getFileName() + " : " + a.getFile().getAbsolutePath() );
 				}
 			}
 			else {
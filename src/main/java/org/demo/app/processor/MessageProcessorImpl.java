@@ -13,8 +13,8 @@ public class MessageProcessorImpl implements MailMessageProcessor {
 		System.out.println("    from    : " + mailMessage.getFrom() );
 		System.out.println("    subject : " + mailMessage.getSubject() );
 		System.out.println("    content-type : " + mailMessage.getContentType()  );
-		System.out.println("    body : "  );
-		System.out.println( mailMessage.getBody() );
+		String body = mailMessage.getBody();
+		System.out.println("    body : " + ( body != null ? body.length() + " chars" : "none" ) );
 		System.out.println("---" );
 		return true;
 	}
@@ -0,0 +1,56 @@
+package org.demo.mail.receiver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplication of the address strings shared by many messages ( recipient mailbox, frequent senders, domains ) <br>
+ * The same address received in N messages is kept in memory once. <br>
+ * The number of strings kept is bounded : when the limit is reached the new strings are no longer deduplicated.
+ */
+public class AddressInterner {
+
+	public static final int DEFAULT_MAX_SIZE = 100_000 ;
+	
+	private static final AddressInterner DEFAULT = new AddressInterner(DEFAULT_MAX_SIZE);
+	
+	private final Map<String, String> strings = new ConcurrentHashMap<>();
+	private final int maxSize ;
+	
+	public AddressInterner(int maxSize) {
+		super();
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Returns the default instance (shared by all the receivers)
+	 * @return
+	 */
+	public static AddressInterner getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the canonical instance of the given string 
+	 * @param s
+	 * @return
+	 */
+	public String intern(String s) {
+		if ( s == null ) {
+			return null;
+		}
+		String canonical = strings.get(s);
+		if ( canonical != null ) {
+			return canonical;
+		}
+		if ( strings.size() < maxSize ) {
+			canonical = strings.putIfAbsent(s, s);
+			return canonical != null ? canonical : s ;
+		}
+		return s;
+	}
+	
+	public int size() {
+		return strings.size();
+	}
+}
@@ -0,0 +1,32 @@
+package org.demo.mail.receiver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous message processor : the result is given by a completion stage, 
+ * the receiver continues to fetch the next messages while the previous ones are processed <br>
+ * The completion stage must complete with true if the message has been processed successfully
+ * (or complete exceptionally in case of error)
+ */
+public interface AsyncMailMessageProcessor {
+
+	CompletionStage<Boolean> processMessageAsync(MailMessage mailMessage);
+	
+	/**
+	 * Returns an asynchronous processor running the given synchronous processor with the given executor
+	 * @param processor
+	 * @param executor
+	 * @return
+	 */
+	static AsyncMailMessageProcessor of(MailMessageProcessor processor, Executor executor) {
+		if ( processor == null ) {
+			throw new IllegalArgumentException("processor is null");
+		}
+		if ( executor == null ) {
+			throw new IllegalArgumentException("executor is null");
+		}
+		return mailMessage -> CompletableFuture.supplyAsync(() -> processor.processMessage(mailMessage), executor);
+	}
+}
@@ -0,0 +1,142 @@
+package org.demo.mail.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
+
+/**
+ * Message dispatcher for an asynchronous processor <br>
+ * The number of messages dispatched and not yet completed (in-flight) is limited : 
+ * 'dispatch' blocks the caller (the thread fetching the messages) when the limit is reached. <br>
+ * The results are collected when the completion stages complete and returned by 'completed()'.
+ */
+class AsyncMessageDispatcher implements MessageDispatcher {
+
+	private final AsyncMailMessageProcessor processor ;
+	
+	private final MailReceiverMetrics metrics ;
+	
+	private final Semaphore inFlightMessages ;
+	
+	private final int maxInFlightMessages ;
+	
+	private final boolean abortOnFailure ;
+
+	private final Queue<ReceivedMessage> completed = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+	
+	/**
+	 * Constructor
+	 * @param processor
+	 * @param metrics
+	 * @param maxInFlightMessages maximum number of messages dispatched and not yet completed
+	 * @param abortOnFailure true to stop at the first processing error, false to keep the errors in the messages completed
+	 */
+	public AsyncMessageDispatcher(AsyncMailMessageProcessor processor, MailReceiverMetrics metrics, int maxInFlightMessages,
+			boolean abortOnFailure) {
+		super();
+		if ( maxInFlightMessages < 1 ) {
+			throw new IllegalArgumentException("invalid max in-flight messages : " + maxInFlightMessages);
+		}
+		this.processor = processor;
+		this.metrics = metrics;
+		this.maxInFlightMessages = maxInFlightMessages;
+		this.inFlightMessages = new Semaphore(maxInFlightMessages);
+		this.abortOnFailure = abortOnFailure;
+	}
+
+	@Override
+	public void dispatch(ReceivedMessage receivedMessage) throws MailReceiverException {
+		checkError();
+		try {
+			inFlightMessages.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for message processing", e);
+		}
+		long start = metrics.startTimer();
+		CompletionStage<Boolean> stage ;
+		try {
+			// Delegate message processing to external service
+			stage = processor.processMessageAsync(receivedMessage.getMailMessage());
+			if ( stage == null ) {
+				stage = CompletableFuture.completedFuture(Boolean.FALSE);
+			}
+		} catch (Exception e) {
+			// synchronous error
+			CompletableFuture<Boolean> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			stage = failed ;
+		}
+		stage.whenComplete((result, error) -> complete(receivedMessage, result, error, start));
+	}
+	
+	private void complete(ReceivedMessage receivedMessage, Boolean result, Throwable error, long start) {
+		try {
+			metrics.stopTimer(Phase.PROCESS, start);
+			if ( error == null ) {
+				receivedMessage.getMailMessage().setProcessingOK(Boolean.TRUE.equals(result));
+				completed.add(receivedMessage);
+			}
+			else {
+				Throwable cause = ( error instanceof CompletionException && error.getCause() != null ) ? error.getCause() : error ;
+				metrics.increment(Counter.FAILURES, 1);
+				if ( abortOnFailure ) {
+					firstError.compareAndSet(null, cause);
+				}
+				else {
+					receivedMessage.setFailure( cause instanceof Exception ? (Exception) cause : new Exception(cause) );
+					completed.add(receivedMessage);
+				}
+			}
+		} finally {
+			inFlightMessages.release();
+		}
+	}
+	
+	private void checkError() throws MailReceiverException {
+		Throwable e = firstError.get();
+		if ( e != null ) {
+			throw new MailReceiverException("Message processing error", e);
+		}
+	}
+
+	@Override
+	public List<ReceivedMessage> completed() {
+		List<ReceivedMessage> list = new ArrayList<>();
+		ReceivedMessage receivedMessage ;
+		while ( ( receivedMessage = completed.poll() ) != null ) {
+			list.add(receivedMessage);
+		}
+		return list;
+	}
+
+	@Override
+	public void awaitCompletion() throws MailReceiverException {
+		// all the permits are available when all the dispatched messages have completed
+		try {
+			inFlightMessages.acquire(maxInFlightMessages);
+			inFlightMessages.release(maxInFlightMessages);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for message processing", e);
+		}
+		checkError();
+	}
+
+	@Override
+	public void close() {
+		// the completion stages are owned by the processor
+	}
+}
@@ -0,0 +1,197 @@
+package org.demo.mail.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
+
+/**
+ * Message dispatcher for a batch processor <br>
+ * The messages are grouped in batches processed by a dedicated thread : a batch is processed 
+ * when it reaches the maximum size or when its first message has waited for the maximum linger time. <br>
+ * At most 2 batches are pending (one processed, one filled) : 'dispatch' blocks the caller when the limit is reached.
+ */
+class BatchMessageDispatcher implements MessageDispatcher {
+
+	private final MailBatchProcessor processor ;
+	
+	private final MailReceiverMetrics metrics ;
+	
+	private final int maxBatchSize ;
+	
+	private final long maxLingerMillis ;
+	
+	private final boolean abortOnFailure ;
+	
+	private final ScheduledExecutorService executor ;
+	
+	private final Semaphore pendingMessages ;
+	
+	private final int maxPendingMessages ;
+
+	private final Queue<ReceivedMessage> completed = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicReference<Exception> firstError = new AtomicReference<>();
+	
+	// batch being filled (guarded by 'this')
+	private List<ReceivedMessage> currentBatch ;
+	
+	/**
+	 * Constructor
+	 * @param processor
+	 * @param metrics
+	 * @param maxBatchSize maximum number of messages in a batch
+	 * @param maxLingerMillis maximum time a message waits for its batch to be full (0 for no limit)
+	 * @param abortOnFailure true to stop at the first processing error, false to keep the errors in the messages completed
+	 */
+	public BatchMessageDispatcher(MailBatchProcessor processor, MailReceiverMetrics metrics, int maxBatchSize, long maxLingerMillis,
+			boolean abortOnFailure) {
+		super();
+		if ( maxBatchSize < 1 ) {
+			throw new IllegalArgumentException("invalid batch size : " + maxBatchSize);
+		}
+		if ( maxLingerMillis < 0 ) {
+			throw new IllegalArgumentException("invalid linger time : " + maxLingerMillis);
+		}
+		this.processor = processor;
+		this.metrics = metrics;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLingerMillis = maxLingerMillis;
+		this.abortOnFailure = abortOnFailure;
+		this.executor = Executors.newSingleThreadScheduledExecutor();
+		this.maxPendingMessages = maxBatchSize * 2 ;
+		this.pendingMessages = new Semaphore(maxPendingMessages);
+	}
+
+	@Override
+	public void dispatch(ReceivedMessage receivedMessage) throws MailReceiverException {
+		checkError();
+		try {
+			pendingMessages.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for message processing", e);
+		}
+		synchronized (this) {
+			if ( currentBatch == null ) {
+				currentBatch = new ArrayList<>(maxBatchSize);
+				if ( maxLingerMillis > 0 ) {
+					// the batch is processed after the linger time even if not full
+					List<ReceivedMessage> batch = currentBatch ;
+					executor.schedule(() -> flush(batch), maxLingerMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+			currentBatch.add(receivedMessage);
+			if ( currentBatch.size() >= maxBatchSize ) {
+				submitCurrentBatch();
+			}
+		}
+	}
+	
+	private void submitCurrentBatch() {
+		List<ReceivedMessage> batch = currentBatch ;
+		currentBatch = null ;
+		executor.execute(() -> process(batch));
+	}
+	
+	/**
+	 * Processes the given batch if it is still the batch being filled (linger time expired)
+	 * @param batch
+	 */
+	private void flush(List<ReceivedMessage> batch) {
+		synchronized (this) {
+			if ( currentBatch != batch ) {
+				return; // already submitted
+			}
+			currentBatch = null ;
+		}
+		process(batch);
+	}
+	
+	private void process(List<ReceivedMessage> batch) {
+		long start = metrics.startTimer();
+		try {
+			if ( firstError.get() == null ) {
+				List<MailMessage> mailMessages = new ArrayList<>(batch.size());
+				for ( ReceivedMessage receivedMessage : batch ) {
+					mailMessages.add(receivedMessage.getMailMessage());
+				}
+				// Delegate messages processing to external service
+				boolean[] results = processor.processMessages(mailMessages);
+				if ( results == null || results.length != batch.size() ) {
+					throw new IllegalStateException("Invalid batch processing result : " 
+							+ ( results == null ? "null" : results.length + " results" ) + " for " + batch.size() + " messages");
+				}
+				for ( int i = 0 ; i < results.length ; i++ ) {
+					batch.get(i).getMailMessage().setProcessingOK(results[i]);
+				}
+				completed.addAll(batch);
+			}
+		} catch (Exception e) {
+			metrics.increment(Counter.FAILURES, 1);
+			if ( abortOnFailure ) {
+				firstError.compareAndSet(null, e);
+			}
+			else {
+				// all the messages of the batch are failed
+				for ( ReceivedMessage receivedMessage : batch ) {
+					receivedMessage.setFailure(e);
+				}
+				completed.addAll(batch);
+			}
+		} finally {
+			metrics.stopTimer(Phase.PROCESS, start);
+			pendingMessages.release(batch.size());
+		}
+	}
+	
+	private void checkError() throws MailReceiverException {
+		Exception e = firstError.get();
+		if ( e != null ) {
+			throw new MailReceiverException("Message processing error", e);
+		}
+	}
+
+	@Override
+	public List<ReceivedMessage> completed() {
+		List<ReceivedMessage> list = new ArrayList<>();
+		ReceivedMessage receivedMessage ;
+		while ( ( receivedMessage = completed.poll() ) != null ) {
+			list.add(receivedMessage);
+		}
+		return list;
+	}
+
+	@Override
+	public void awaitCompletion() throws MailReceiverException {
+		// the last batch is processed without waiting for the linger time
+		synchronized (this) {
+			if ( currentBatch != null ) {
+				submitCurrentBatch();
+			}
+		}
+		// all the permits are available when all the dispatched messages have been processed
+		try {
+			pendingMessages.acquire(maxPendingMessages);
+			pendingMessages.release(maxPendingMessages);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for message processing", e);
+		}
+		checkError();
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
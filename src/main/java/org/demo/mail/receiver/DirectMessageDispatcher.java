@@ -0,0 +1,73 @@
+package org.demo.mail.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
+
+/**
+ * Message dispatcher processing each message immediately in the current thread
+ */
+class DirectMessageDispatcher implements MessageDispatcher {
+
+	private final MailMessageProcessor processor ;
+	
+	private final MailReceiverMetrics metrics ;
+	
+	private final boolean abortOnFailure ;
+	
+	private final List<ReceivedMessage> completed = new ArrayList<>();
+	
+	/**
+	 * Constructor
+	 * @param processor
+	 * @param metrics
+	 * @param abortOnFailure true to throw the processing errors, false to keep them in the messages completed
+	 */
+	public DirectMessageDispatcher(MailMessageProcessor processor, MailReceiverMetrics metrics, boolean abortOnFailure) {
+		super();
+		this.processor = processor;
+		this.metrics = metrics;
+		this.abortOnFailure = abortOnFailure;
+	}
+
+	@Override
+	public void dispatch(ReceivedMessage receivedMessage) throws MailReceiverException {
+		MailMessage mailMessage = receivedMessage.getMailMessage();
+		// Delegate message processing to external service
+		boolean messageProcessingIsOK = false;
+		long start = metrics.startTimer();
+		try {
+			messageProcessingIsOK = processor.processMessage(mailMessage);
+		} catch (Exception e) {
+			metrics.increment(Counter.FAILURES, 1);
+			if ( abortOnFailure ) {
+				throw new MailReceiverException("Message processing error", e);
+			}
+			receivedMessage.setFailure(e);
+		} finally {
+			metrics.stopTimer(Phase.PROCESS, start);
+		}
+		mailMessage.setProcessingOK(messageProcessingIsOK);
+		completed.add(receivedMessage);
+	}
+
+	@Override
+	public List<ReceivedMessage> completed() {
+		List<ReceivedMessage> list = new ArrayList<>(completed);
+		completed.clear();
+		return list;
+	}
+
+	@Override
+	public void awaitCompletion() {
+		// nothing to wait for 
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
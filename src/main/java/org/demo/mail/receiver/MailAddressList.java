@@ -0,0 +1,102 @@
+package org.demo.mail.receiver;
+
+import java.util.AbstractList;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Compact and immutable list of addresses ( "To", "Cc", "Bcc" ) <br>
+ * The list keeps the raw header value and parses it only on first access ; 
+ * the addresses are then stored in an array of deduplicated strings ( see 'AddressInterner' )
+ */
+public final class MailAddressList extends AbstractList<String> implements RandomAccess {
+
+	private static final String[] NO_ADDRESS = new String[0];
+	
+	private static final MailAddressList EMPTY = new MailAddressList(null, null);
+	
+	private final AddressInterner interner ;
+	
+	// raw header value, released once parsed 
+	private String header ;
+	
+	private volatile String[] addresses ;
+	
+	private MailAddressList(String header, AddressInterner interner) {
+		super();
+		this.header = header;
+		this.interner = interner;
+		this.addresses = ( header == null ) ? NO_ADDRESS : null ;
+	}
+
+	/**
+	 * Returns a list for the given header value (the header is parsed on first access)
+	 * @param header the raw header value ( eg "John <john@example.com>, mary@example.com" ) or null
+	 * @param interner 
+	 * @return
+	 */
+	public static MailAddressList ofHeader(String header, AddressInterner interner) {
+		if ( header == null || header.isEmpty() ) {
+			return EMPTY;
+		}
+		return new MailAddressList(header, interner);
+	}
+	
+	private String[] addresses() {
+		String[] array = addresses ;
+		if ( array == null ) {
+			synchronized (this) {
+				array = addresses ;
+				if ( array == null ) {
+					array = parse(header);
+					addresses = array ;
+					header = null ;
+				}
+			}
+		}
+		return array;
+	}
+	
+	private String[] parse(String value) {
+		try {
+			InternetAddress[] internetAddresses = InternetAddress.parseHeader(value, false);
+			String[] array = new String[internetAddresses.length];
+			for ( int i = 0 ; i < internetAddresses.length ; i++ ) {
+				array[i] = interner.intern(internetAddresses[i].toString());
+			}
+			return array;
+		} catch (AddressException e) {
+			// invalid header : kept as a single address
+			return new String[] { interner.intern(value.trim()) };
+		}
+	}
+	
+	@Override
+	public String get(int index) {
+		return addresses()[index];
+	}
+
+	@Override
+	public int size() {
+		return addresses().length;
+	}
+	
+	/**
+	 * Returns the domain of the address at the given index ( "example.com" for "John <john@example.com>" )
+	 * @param index
+	 * @return the domain (lower case) or null if none
+	 */
+	public String getDomain(int index) {
+		String address = get(index);
+		int at = address.lastIndexOf('@');
+		if ( at < 0 ) {
+			return null;
+		}
+		int end = address.indexOf('>', at);
+		String domain = address.substring(at + 1, end > at ? end : address.length()).trim().toLowerCase(Locale.ROOT);
+		return interner.intern(domain);
+	}
+}
@@ -0,0 +1,58 @@
+package org.demo.mail.receiver;
+
+import java.io.File;
+
+/**
+ * Lightweight handle on an attachment stored by an 'AttachmentStore' <br>
+ * (the content is not in memory, it can be read from the file)
+ */
+public class MailAttachment {
+
+	private final String fileName ;
+	private final String contentType ;
+	private final long size ;
+	private final String digest ;
+	private final File file ;
+	
+	/**
+	 * Constructor
+	 * @param fileName the original file name (as defined in the message)
+	 * @param contentType
+	 * @param size the size in bytes (decoded content)
+	 * @param digest the content digest (hexadecimal SHA-256) or null if not computed
+	 * @param file the file containing the attachment
+	 */
+	public MailAttachment(String fileName, String contentType, long size, String digest, File file) {
+		super();
+		this.fileName = fileName;
+		this.contentType = contentType;
+		this.size = size;
+		this.digest = digest;
+		this.file = file;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return fileName + " (" + size + " bytes) : " + file.getAbsolutePath() ;
+	}
+}
@@ -0,0 +1,17 @@
+package org.demo.mail.receiver;
+
+import java.util.List;
+
+/**
+ * Message processor receiving the messages by batches (for bulk writes) 
+ */
+public interface MailBatchProcessor {
+
+	/**
+	 * Processes a batch of messages 
+	 * @param mailMessages 
+	 * @return the result for each message ( true if processed successfully ), in the same order as the messages
+	 */
+	boolean[] processMessages(List<MailMessage> mailMessages);
+	
+}
@@ -0,0 +1,133 @@
+package org.demo.mail.receiver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message body ( text or html ) kept as a String or as UTF-8 bytes ( see 'MailBodyOptions' ) <br>
+ * A body stored as UTF-8 bytes is accessed as a 'CharSequence' without being converted 
+ * if it contains only ASCII characters (otherwise it is decoded on first access). <br>
+ * A truncated body ends with the truncation marker, its whole text is in a file if a spill directory is defined.
+ */
+public final class MailBody implements CharSequence {
+
+	private final byte[] utf8 ;
+	private final boolean ascii ;
+	private final boolean truncated ;
+	private final File file ;
+	
+	// text (given or decoded from the UTF-8 bytes on first access)
+	private String text ;
+	
+	private MailBody(String text, byte[] utf8, boolean truncated, File file) {
+		super();
+		this.text = text;
+		this.utf8 = utf8;
+		this.ascii = ( utf8 != null ) && isAscii(utf8);
+		this.truncated = truncated;
+		this.file = file;
+	}
+
+	/**
+	 * Creates a body from the given text
+	 * @param text
+	 * @return the body (or null if the text is null)
+	 */
+	public static MailBody of(String text) {
+		return ( text != null ) ? new MailBody(text, null, false, null) : null ;
+	}
+
+	/**
+	 * Creates a body from the given text
+	 * @param text
+	 * @param truncated
+	 * @param file the file containing the whole text (or null)
+	 * @return
+	 */
+	public static MailBody of(String text, boolean truncated, File file) {
+		return new MailBody(text, null, truncated, file);
+	}
+
+	/**
+	 * Creates a body from the given UTF-8 bytes (the array is not copied)
+	 * @param utf8
+	 * @param truncated
+	 * @param file the file containing the whole text (or null)
+	 * @return
+	 */
+	public static MailBody ofUtf8(byte[] utf8, boolean truncated, File file) {
+		return new MailBody(null, utf8, truncated, file);
+	}
+	
+	private static boolean isAscii(byte[] bytes) {
+		for ( byte b : bytes ) {
+			if ( b < 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private synchronized String text() {
+		if ( text == null ) {
+			text = new String(utf8, StandardCharsets.UTF_8);
+		}
+		return text;
+	}
+	
+	@Override
+	public int length() {
+		return ascii ? utf8.length : text().length() ;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if ( ascii ) {
+			if ( index < 0 || index >= utf8.length ) {
+				throw new IndexOutOfBoundsException("index " + index);
+			}
+			return (char) utf8[index];
+		}
+		return text().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if ( ascii ) {
+			return new String(utf8, start, end - start, StandardCharsets.US_ASCII);
+		}
+		return text().subSequence(start, end);
+	}
+
+	/**
+	 * Returns the body text (a new String is created on first call if the body is stored as UTF-8 bytes)
+	 */
+	@Override
+	public String toString() {
+		return text();
+	}
+	
+	/**
+	 * Returns the body as UTF-8 bytes (the array must not be modified)
+	 * @return
+	 */
+	public byte[] getUtf8Bytes() {
+		return ( utf8 != null ) ? utf8 : text.getBytes(StandardCharsets.UTF_8) ;
+	}
+
+	/**
+	 * Returns true if the body has been truncated ( see 'MailBodyOptions.setMaxBodyLength' )
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Returns the file containing the whole text of a truncated body (UTF-8) 
+	 * @return the file or null if the body is not truncated or if there's no spill directory
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,86 @@
+package org.demo.mail.receiver;
+
+import java.io.File;
+
+/**
+ * Options for the decoding of the message bodies ( "text/plain" and "text/html" parts ) : <br>
+ * - maximum length kept in memory : the body is truncated and ends with the truncation marker <br>
+ * - spill directory : when truncated, the whole body is written in a temporary file of this directory <br>
+ * - UTF-8 storage : the body is kept as UTF-8 bytes (1 byte per ASCII character instead of 2 for a String) <br>
+ * The bodies are decoded in streaming : the memory used does not depend on the part size.
+ */
+public class MailBodyOptions {
+
+	public static final int NO_LIMIT = 0 ;
+	
+	public static final String DEFAULT_TRUNCATION_MARKER = "\n[...truncated]" ;
+	
+	private int maxBodyLength = NO_LIMIT ;
+	
+	private String truncationMarker = DEFAULT_TRUNCATION_MARKER ;
+	
+	private boolean utf8Storage = false ;
+	
+	private File spillDirectory = null ;
+	
+	/**
+	 * Returns the default options : no limit, bodies stored as String
+	 * @return
+	 */
+	public static MailBodyOptions defaults() {
+		return new MailBodyOptions();
+	}
+
+	public int getMaxBodyLength() {
+		return maxBodyLength;
+	}
+
+	/**
+	 * Sets the maximum number of characters of a body kept in memory (default = NO_LIMIT)
+	 * @param maxBodyLength
+	 */
+	public void setMaxBodyLength(int maxBodyLength) {
+		if ( maxBodyLength < 0 ) {
+			throw new IllegalArgumentException("invalid max body length : " + maxBodyLength);
+		}
+		this.maxBodyLength = maxBodyLength;
+	}
+
+	public String getTruncationMarker() {
+		return truncationMarker;
+	}
+
+	/**
+	 * Sets the text appended to a truncated body (default = "\n[...truncated]")
+	 * @param truncationMarker the marker (null or empty for no marker)
+	 */
+	public void setTruncationMarker(String truncationMarker) {
+		this.truncationMarker = ( truncationMarker != null ) ? truncationMarker : "" ;
+	}
+
+	public boolean isUtf8Storage() {
+		return utf8Storage;
+	}
+
+	/**
+	 * Defines if the bodies are kept as UTF-8 bytes instead of String (default = false) <br>
+	 * see 'MailMessage.getBodyContent()' to access the body without creating a String
+	 * @param utf8Storage
+	 */
+	public void setUtf8Storage(boolean utf8Storage) {
+		this.utf8Storage = utf8Storage;
+	}
+
+	public File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Sets the directory where the whole text of the truncated bodies is written ( see 'MailBody.getFile()' ) <br>
+	 * The files are not removed by the receiver 
+	 * @param spillDirectory the directory (null for no spill : the end of the truncated bodies is lost)
+	 */
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = ( spillDirectory != null ) ? new File(spillDirectory) : null ;
+	}
+}
@@ -0,0 +1,17 @@
+package org.demo.mail.receiver;
+
+/**
+ * Unchecked exception thrown when the content of a MailMessage cannot be loaded on first access
+ */
+public class MailContentException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public MailContentException(String message) {
+		super(message);
+	}
+
+	public MailContentException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
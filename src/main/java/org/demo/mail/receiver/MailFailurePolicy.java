@@ -0,0 +1,18 @@
+package org.demo.mail.receiver;
+
+/**
+ * Behavior of the receiver when a message cannot be parsed or processed (the processor throws an exception)
+ */
+public enum MailFailurePolicy {
+
+	/**
+	 * The reception is stopped and a 'MailReceiverException' is thrown : no message is deleted (default)
+	 */
+	ABORT,
+	
+	/**
+	 * The failed message is skipped (not deleted, recorded in the dead-letter queue if any) 
+	 * and the reception continues : the messages processed successfully are deleted
+	 */
+	CONTINUE
+}
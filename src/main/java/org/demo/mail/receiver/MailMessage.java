@@ -1,13 +1,19 @@
 package org.demo.mail.receiver;
 
-import java.io.File;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.List;
 
 public class MailMessage {
 
+	// zone used to compute the local date ( resolved once ) 
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+	
 	private final String from ;
-	private final LocalDate date ;
+	private final Instant sentInstant ;
+	private LocalDate date ;
+	private Instant receivedInstant ;
 	private final String subject ;
 	private final String messageId ;
 	
@@ -18,27 +24,64 @@ public class MailMessage {
 	
 	private String contentType;
 	private int size ;
-	private String body;
-	private String bodyHtml;
+	private MailBody body;
+	private MailBody bodyHtml;
 
-	private List<File> attachements ;
+	private List<MailAttachment> attachements ;
 	
 	private boolean processingOK = false;
 	
+	// content loaded on first access (null if already loaded or no longer available) 
+	private MailMessageContentLoader contentLoader ;
+	private boolean contentAvailable = true ;
+	
 	public MailMessage(String from, LocalDate date, String subject, String messageId) {
 		super();
 		this.from = from;
+		this.sentInstant = null;
 		this.date = date;
 		this.subject = subject;
 		this.messageId = messageId;
 	}
 	
+	public MailMessage(String from, Instant sentInstant, String subject, String messageId) {
+		super();
+		this.from = from;
+		this.sentInstant = sentInstant;
+		this.subject = subject;
+		this.messageId = messageId;
+	}
+	
 	public String getFrom() {
 		return from;
 	}
+	/**
+	 * Returns the sent date in the default time zone
+	 * @return
+	 */
 	public LocalDate getDate() {
+		if ( date == null && sentInstant != null ) {
+			date = LocalDate.ofInstant(sentInstant, ZONE);
+		}
 		return date;
 	}
+	/**
+	 * Returns the sent date-time ( "Date" header field )
+	 * @return the instant or null if unknown
+	 */
+	public Instant getSentInstant() {
+		return sentInstant;
+	}
+	/**
+	 * Returns the date-time of reception by the mail server ( most recent "Received" header field )
+	 * @return the instant or null if unknown
+	 */
+	public Instant getReceivedInstant() {
+		return receivedInstant;
+	}
+	public void setReceivedInstant(Instant receivedInstant) {
+		this.receivedInstant = receivedInstant;
+	}
 	public String getSubject() {
 		return subject;
 	}
@@ -95,27 +138,105 @@ public class MailMessage {
 		return processingOK;
 	}
 
+	/**
+	 * Sets the loader used to retrieve the content (body, html body, attachments) on first access
+	 * @param contentLoader
+	 */
+	public synchronized void setContentLoader(MailMessageContentLoader contentLoader) {
+		this.contentLoader = contentLoader;
+		this.contentAvailable = true;
+	}
+	
+	/**
+	 * Returns true if the content (body, html body, attachments) is already loaded 
+	 * @return
+	 */
+	public synchronized boolean isContentLoaded() {
+		return contentLoader == null && contentAvailable ;
+	}
+	
+	/**
+	 * Loads the content (body, html body, attachments) if not yet loaded 
+	 * @throws MailReceiverException
+	 */
+	public synchronized void loadContent() throws MailReceiverException {
+		if ( ! contentAvailable ) {
+			throw new MailReceiverException("Message content no longer available (message '" + messageId + "' released)");
+		}
+		if ( contentLoader != null ) {
+			MailMessageContentLoader loader = contentLoader ;
+			loader.loadContent(this);
+			contentLoader = null ;
+		}
+	}
+	
+	/**
+	 * Makes the content unavailable if not yet loaded (after the folder is closed the content cannot be retrieved)
+	 */
+	synchronized void releaseContentLoader() {
+		if ( contentLoader != null ) {
+			contentLoader = null ;
+			contentAvailable = false ;
+		}
+	}
+	
+	private void ensureContentLoaded() {
+		try {
+			loadContent();
+		} catch (MailReceiverException e) {
+			throw new MailContentException("Cannot load content of message '" + messageId + "'", e);
+		}
+	}
+
 	public String getBody() {
-		return this.body;
+		ensureContentLoaded();
+		return ( this.body != null ) ? this.body.toString() : null ;
 	}
 	public void setBody(String body) {
+		this.body = MailBody.of(body);
+	}
+	
+	/**
+	 * Returns the text body without converting it to a String ( see 'MailBodyOptions' )
+	 * @return the body or null if none
+	 */
+	public MailBody getBodyContent() {
+		ensureContentLoaded();
+		return this.body;
+	}
+	public void setBodyContent(MailBody body) {
 		this.body = body;
 	}
 
 	public String getBodyHtml() {
-		return this.bodyHtml;
+		ensureContentLoaded();
+		return ( this.bodyHtml != null ) ? this.bodyHtml.toString() : null ;
 	}
 	public void setBodyHtml(String bodyHtml) {
+		this.bodyHtml = MailBody.of(bodyHtml);
+	}
+
+	/**
+	 * Returns the html body without converting it to a String ( see 'MailBodyOptions' )
+	 * @return the html body or null if none
+	 */
+	public MailBody getBodyHtmlContent() {
+		ensureContentLoaded();
+		return this.bodyHtml;
+	}
+	public void setBodyHtmlContent(MailBody bodyHtml) {
 		this.bodyHtml = bodyHtml;
 	}
 	
-	public List<File> getAttachments() {
+	public List<MailAttachment> getAttachments() {
+		ensureContentLoaded();
 		return this.attachements;
 	}
 	public boolean hasAttachments() {
+		ensureContentLoaded();
 		return this.attachements != null && this.attachements.size() > 0 ;
 	}
-	public void setAttachments(List<File> attachements) {
+	public void setAttachments(List<MailAttachment> attachements) {
 		this.attachements = attachements;
 	}
 	
@@ -0,0 +1,13 @@
+package org.demo.mail.receiver;
+
+public interface MailMessageContentLoader {
+
+	/**
+	 * Retrieves and parses the message content and stores it in the given MailMessage 
+	 * (body, html body, attachments)
+	 * @param mailMessage
+	 * @throws MailReceiverException
+	 */
+	void loadContent(MailMessage mailMessage) throws MailReceiverException;
+	
+}
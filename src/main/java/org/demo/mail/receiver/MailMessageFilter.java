@@ -0,0 +1,14 @@
+package org.demo.mail.receiver;
+
+public interface MailMessageFilter {
+
+	/**
+	 * Returns true if the message must be downloaded and processed <br>
+	 * Only the header fields are available in the given message (from, sender, recipients, subject, date, size, content-type) 
+	 * the body and the attachments are not yet retrieved from the server (with POP3 the headers are fetched with "TOP")
+	 * @param mailMessage
+	 * @return
+	 */
+	boolean accept(MailMessage mailMessage);
+	
+}
@@ -1,11 +1,35 @@
 package org.demo.mail.receiver;
 
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
 
+import org.demo.mail.receiver.attachment.AttachmentStore;
+import org.demo.mail.receiver.attachment.ContentAddressedAttachmentStore;
 import org.demo.mail.receiver.builder.MailMessageBuilder;
+import org.demo.mail.receiver.connection.MailSessionCache;
+import org.demo.mail.receiver.connection.Pop3UidDeleter;
+import org.demo.mail.receiver.connection.StoreManager;
+import org.demo.mail.receiver.deadletter.DeadLetterQueue;
+import org.demo.mail.receiver.dedup.DuplicateMessageCache;
+import org.demo.mail.receiver.dedup.DuplicateMessageDetector;
+import org.demo.mail.receiver.index.SeenMessageIndex;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
+import org.demo.mail.receiver.spool.MailSpool;
+import org.demo.mail.receiver.spool.MailSpoolEntry;
 
+import jakarta.mail.FetchProfile;
 import jakarta.mail.Flags;
 import jakarta.mail.Folder;
 import jakarta.mail.Message;
@@ -13,26 +37,390 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.NoSuchProviderException;
 import jakarta.mail.Session;
 import jakarta.mail.Store;
+import jakarta.mail.UIDFolder;
 
-public class MailReceiver {
+import com.sun.mail.pop3.POP3Folder;
+import com.sun.mail.pop3.POP3Message;
+import com.sun.mail.pop3.POP3Store;
+
+public class MailReceiver implements AutoCloseable {
 
 	public static final boolean DELETE_MSG = true ;
 	public static final boolean DO_NOT_DELETE_MSG = false ;
+	
+	public static final int DEFAULT_PREFETCH_BATCH_SIZE = 50 ;
+	
+	public static final int DEFAULT_MAX_IN_FLIGHT_MESSAGES = 16 ;
+	
+	public static final int DEFAULT_BATCH_SIZE = 100 ;
+	
+	public static final long DEFAULT_BATCH_LINGER_MILLIS = 1000 ;
+	
+	public static final int DEFAULT_SPOOL_SYNC_INTERVAL = 50 ;
+	
+	public static final int NO_SIZE_LIMIT = 0 ;
+	
+	// the second POP3 session costs about 10 round trips (connection, TLS, login, CAPA, UIDL, QUIT)
+	public static final int DEFAULT_MIN_PIPELINED_DELETIONS = 16 ;
 
 	private static final String PROTOCOL = "pop3" ;
 	
-	private final Properties properties ;
+	private static final MailSessionCache SESSION_CACHE = new MailSessionCache();
+	
+	private Properties properties ;
 	private final MailMessageProcessor processor ;
+	private AsyncMailMessageProcessor asyncProcessor = null ;
+	private MailBatchProcessor batchProcessor = null ;
 	private final MailMessageBuilder mailMessageBuilder ;
-	private final String attachementsDirectory;
+	private final AttachmentStore attachmentStore;
+	
+	private int processingWorkers = 1 ;
+	
+	private int maxInFlightMessages = DEFAULT_MAX_IN_FLIGHT_MESSAGES ;
+	
+	private int batchSize = DEFAULT_BATCH_SIZE ;
+	
+	private long batchLingerMillis = DEFAULT_BATCH_LINGER_MILLIS ;
+	
+	private int spoolSyncInterval = DEFAULT_SPOOL_SYNC_INTERVAL ;
+	
+	private int largeMessageThreshold = NO_SIZE_LIMIT ;
+	
+	private int largeMessageWorkers = 1 ;
+	
+	private boolean lazyContent = true ;
+	
+	private int prefetchBatchSize = DEFAULT_PREFETCH_BATCH_SIZE ;
+	
+	private boolean pipelining = false ;
+	
+	private int minPipelinedDeletions = DEFAULT_MIN_PIPELINED_DELETIONS ;
+	
+	private MailReceiverMetrics metrics = MailReceiverMetrics.NONE ;
+	
+	private StoreManager storeManager = null ;
+	
+	private MailMessageFilter messageFilter = null ;
+	
+	private MailFailurePolicy failurePolicy = MailFailurePolicy.ABORT ;
 	
+	private DeadLetterQueue deadLetterQueue = null ;
+	
+	private DuplicateMessageDetector duplicateDetector = null ;
+	
+	private File seenMessageIndexDirectory = null ;
+	
+	private final Map<File, SeenMessageIndex> seenMessageIndexes = new HashMap<>();
+	
+	/**
+	 * Constructor with the default attachment store (content-addressed, see 'ContentAddressedAttachmentStore')
+	 * @param properties
+	 * @param attachementsDirectory
+	 * @param processor
+	 */
 	public MailReceiver(Properties properties, String attachementsDirectory, MailMessageProcessor processor) {
+		this(properties, new ContentAddressedAttachmentStore(attachementsDirectory), processor);
+	}
+	
+	/**
+	 * Constructor 
+	 * @param properties
+	 * @param attachmentStore
+	 * @param processor
+	 */
+	public MailReceiver(Properties properties, AttachmentStore attachmentStore, MailMessageProcessor processor) {
 		this.properties = properties ;
 		this.processor = processor;
-		this.attachementsDirectory = attachementsDirectory;
+		this.attachmentStore = attachmentStore;
 		this.mailMessageBuilder = new MailMessageBuilder();
 	}
 	
+	/**
+	 * Sets the number of messages processed in parallel (default = 1 : no parallelism) <br>
+	 * If more than 1 worker the messages are fetched and parsed by the current thread and processed by a pool of workers 
+	 * (virtual threads if available), at most 2 x workers messages can wait for processing. <br>
+	 * The processor must be thread-safe. The order of the messages processed is not guaranteed.
+	 * @param processingWorkers
+	 */
+	public void setProcessingWorkers(int processingWorkers) {
+		if ( processingWorkers < 1 ) {
+			throw new IllegalArgumentException("invalid number of processing workers : " + processingWorkers);
+		}
+		this.processingWorkers = processingWorkers;
+	}
+
+	/**
+	 * Sets an asynchronous processor used instead of the processor given to the constructor <br>
+	 * The messages are fetched by the current thread while the previous ones are processed 
+	 * ( see 'setMaxInFlightMessages' ). Each message is finalized (deletion flag, index) when its processing 
+	 * is completed and the folder is closed when all the processing are completed. <br>
+	 * A synchronous processor can be adapted with 'AsyncMailMessageProcessor.of(processor, executor)'
+	 * @param asyncProcessor the asynchronous processor (null to use the synchronous processor)
+	 */
+	public void setAsyncProcessor(AsyncMailMessageProcessor asyncProcessor) {
+		this.asyncProcessor = asyncProcessor;
+	}
+
+	/**
+	 * Sets a batch processor used instead of the processor given to the constructor <br>
+	 * The messages are given to the processor by batches ( see 'setBatchSize' and 'setBatchLingerMillis' ), 
+	 * processed by a dedicated thread while the next messages are fetched. 
+	 * Only the messages acknowledged by the processor are deleted.
+	 * @param batchProcessor the batch processor (null to use the other processor)
+	 */
+	public void setBatchProcessor(MailBatchProcessor batchProcessor) {
+		this.batchProcessor = batchProcessor;
+	}
+
+	/**
+	 * Sets the maximum number of messages in a batch (default = 100) 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		if ( batchSize < 1 ) {
+			throw new IllegalArgumentException("invalid batch size : " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets the maximum time a message waits for its batch to be full before the batch is processed (default = 1000 ms) 
+	 * @param batchLingerMillis the time in milliseconds (0 for no limit : the batch is processed when full or at the end)
+	 */
+	public void setBatchLingerMillis(long batchLingerMillis) {
+		if ( batchLingerMillis < 0 ) {
+			throw new IllegalArgumentException("invalid batch linger time : " + batchLingerMillis);
+		}
+		this.batchLingerMillis = batchLingerMillis;
+	}
+
+	/**
+	 * Sets the number of messages written in the spool between 2 synchronizations on the disk (default = 50) <br>
+	 * Used by 'spoolMessages' : a lower value means more "fsync" calls, a higher value more messages 
+	 * downloaded again if the connection is lost
+	 * @param spoolSyncInterval
+	 */
+	public void setSpoolSyncInterval(int spoolSyncInterval) {
+		if ( spoolSyncInterval < 1 ) {
+			throw new IllegalArgumentException("invalid spool sync interval : " + spoolSyncInterval);
+		}
+		this.spoolSyncInterval = spoolSyncInterval;
+	}
+
+	/**
+	 * Sets the maximum number of messages whose asynchronous processing is not completed (default = 16) <br>
+	 * Used only with an asynchronous processor ( see 'AsyncMailMessageProcessor' )
+	 * @param maxInFlightMessages
+	 */
+	public void setMaxInFlightMessages(int maxInFlightMessages) {
+		if ( maxInFlightMessages < 1 ) {
+			throw new IllegalArgumentException("invalid max in-flight messages : " + maxInFlightMessages);
+		}
+		this.maxInFlightMessages = maxInFlightMessages;
+	}
+
+	/**
+	 * Activates the size-aware scheduling : the messages larger than the given size (POP3 "LIST" size, known before 
+	 * the download) are not processed in the order of the mailbox but after all the other messages, 
+	 * so that a very large message does not delay the small ones. <br>
+	 * The large messages are processed by their own dispatcher ( see 'setLargeMessageWorkers' ), their content is 
+	 * always loaded on demand and released as soon as they are processed. <br>
+	 * The POP3 file cache is activated if not yet configured ( see 'setMessageFileCache' ) : the messages are 
+	 * downloaded in temporary files and parsed from the file (a large message is never held in memory as a whole). 
+	 * The file cache applies to all the messages of the store (the POP3 provider does not allow a per-message choice).
+	 * @param largeMessageThreshold the size in bytes (NO_SIZE_LIMIT to deactivate, default)
+	 */
+	public void setLargeMessageThreshold(int largeMessageThreshold) {
+		if ( largeMessageThreshold < 0 ) {
+			throw new IllegalArgumentException("invalid large message threshold : " + largeMessageThreshold);
+		}
+		this.largeMessageThreshold = largeMessageThreshold;
+		if ( largeMessageThreshold != NO_SIZE_LIMIT && ! isMessageFileCacheEnabled() ) {
+			// system temporary directory (can be changed with 'setMessageFileCache')
+			setMessageFileCache(null);
+		}
+	}
+
+	/**
+	 * Sets the number of large messages processed in parallel (default = 1) <br>
+	 * At most this number of large messages are waiting for processing or being processed 
+	 * ( see 'setLargeMessageThreshold' ) 
+	 * @param largeMessageWorkers
+	 */
+	public void setLargeMessageWorkers(int largeMessageWorkers) {
+		if ( largeMessageWorkers < 1 ) {
+			throw new IllegalArgumentException("invalid number of large message workers : " + largeMessageWorkers);
+		}
+		this.largeMessageWorkers = largeMessageWorkers;
+	}
+
+	/**
+	 * Sets the metrics used to instrument the receiver (timers by phase, counters) 
+	 * @param metrics the metrics (null for no metrics)
+	 */
+	public void setMetrics(MailReceiverMetrics metrics) {
+		this.metrics = ( metrics != null ) ? metrics : MailReceiverMetrics.NONE ;
+		this.mailMessageBuilder.setMetrics(this.metrics);
+	}
+
+	/**
+	 * Activates the POP3 command pipelining ( RFC 2449 "PIPELINING" capability ) : <br>
+	 * - "mail.pop3.pipelining" is set : the POP3 provider pipelines its commands (login, LIST + RETR) 
+	 *   if the server advertises the capability (detected with "CAPA") <br>
+	 * - if the server advertises the capability, the messages to delete are not deleted one by one at the 
+	 *   folder closing (one round trip per "DELE") but in a second session by UID, with the "DELE" commands 
+	 *   sent by batches ( see 'Pop3UidDeleter' ). This second session is not used if the authentication is 
+	 *   not USER/PASS or if there are fewer messages to delete than 'minPipelinedDeletions', and if it fails 
+	 *   the messages are deleted through the Jakarta Mail store (lock-step)
+	 * @param pipelining
+	 */
+	public void setPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+		// the properties given to the constructor are not modified
+		Properties newProperties = new Properties();
+		newProperties.putAll(properties);
+		newProperties.put("mail." + PROTOCOL + ".pipelining", String.valueOf(pipelining));
+		this.properties = newProperties ;
+	}
+
+	/**
+	 * Sets the minimum number of messages to delete for a deletion in a second pipelined session ( see 'setPipelining' ) <br>
+	 * Below this number the messages are deleted one by one at the folder closing, in the receive session
+	 * @param minPipelinedDeletions (default = 16)
+	 */
+	public void setMinPipelinedDeletions(int minPipelinedDeletions) {
+		if ( minPipelinedDeletions < 1 ) {
+			throw new IllegalArgumentException("invalid min pipelined deletions : " + minPipelinedDeletions);
+		}
+		this.minPipelinedDeletions = minPipelinedDeletions;
+	}
+
+	/**
+	 * Sets the number of messages whose headers are prefetched together before being processed 
+	 * ( 'Folder.fetch' with ENVELOPE, CONTENT_INFO and SIZE ) <br>
+	 * Only the messages to be processed are prefetched (not those already in the seen-message index)
+	 * @param prefetchBatchSize the batch size (0 to disable the prefetch, default = 50)
+	 */
+	public void setPrefetchBatchSize(int prefetchBatchSize) {
+		if ( prefetchBatchSize < 0 ) {
+			throw new IllegalArgumentException("invalid prefetch batch size : " + prefetchBatchSize);
+		}
+		this.prefetchBatchSize = prefetchBatchSize;
+	}
+
+	/**
+	 * Defines if the message content (body, html body, attachments) is retrieved and parsed only when 
+	 * the processor accesses it (default = true) <br>
+	 * A message whose content is never accessed by the processor is not downloaded ( no POP3 "RETR" ), 
+	 * not parsed and its attachments are not saved. <br>
+	 * The content of the messages returned by 'readMessages' is always loaded.
+	 * @param lazyContent
+	 */
+	public void setLazyContent(boolean lazyContent) {
+		this.lazyContent = lazyContent;
+	}
+
+	/**
+	 * Sets the options used to decode the message bodies : max length kept in memory,
+	 * storage as UTF-8 bytes, spill directory for the truncated bodies ( see 'MailBodyOptions' )
+	 * @param bodyOptions the options (null for the default options : no limit)
+	 */
+	public void setBodyOptions(MailBodyOptions bodyOptions) {
+		this.mailMessageBuilder.setBodyOptions(bodyOptions);
+	}
+
+	/**
+	 * Activates the POP3 file cache : the raw messages are downloaded in temporary files in the given directory 
+	 * instead of being kept in memory ( "mail.pop3.filecache.enable" ) <br>
+	 * The message parts (attachments) are then read from the file without loading the whole message in memory
+	 * @param fileCacheDirectory the directory for the temporary files (null for the system temporary directory)
+	 */
+	public void setMessageFileCache(String fileCacheDirectory) {
+		// the properties given to the constructor are not modified
+		Properties newProperties = new Properties();
+		newProperties.putAll(properties);
+		newProperties.put("mail." + PROTOCOL + ".filecache.enable", "true");
+		if ( fileCacheDirectory != null ) {
+			newProperties.put("mail." + PROTOCOL + ".filecache.dir", fileCacheDirectory);
+		}
+		this.properties = newProperties ;
+	}
+
+	private boolean isMessageFileCacheEnabled() {
+		return Boolean.parseBoolean(properties.getProperty("mail." + PROTOCOL + ".filecache.enable"));
+	}
+
+	/**
+	 * Sets a store manager to limit the number of connections per host <br>
+	 * The same store manager can be shared by several receivers
+	 * @param storeManager the store manager (null to open and close a new store for each call)
+	 */
+	public void setStoreManager(StoreManager storeManager) {
+		this.storeManager = storeManager;
+	}
+
+	/**
+	 * Returns the mail server host name defined in the properties
+	 * @return
+	 */
+	public String getHost() {
+		return properties.getProperty("mail." + PROTOCOL + ".host", "localhost");
+	}
+
+	/**
+	 * Sets a filter evaluated on the message header before downloading the message content <br>
+	 * The messages rejected by the filter are not downloaded, not processed and not deleted 
+	 * (in incremental mode they are registered in the index and not checked again)
+	 * @param messageFilter the filter (null for no filter)
+	 */
+	public void setMessageFilter(MailMessageFilter messageFilter) {
+		this.messageFilter = messageFilter;
+	}
+
+	/**
+	 * Sets the behavior when a message cannot be parsed or processed (default = ABORT) 
+	 * @param failurePolicy
+	 */
+	public void setFailurePolicy(MailFailurePolicy failurePolicy) {
+		if ( failurePolicy == null ) {
+			throw new IllegalArgumentException("failurePolicy is null");
+		}
+		this.failurePolicy = failurePolicy;
+	}
+
+	/**
+	 * Sets the dead-letter queue where the failed messages are recorded (used with the CONTINUE failure policy) <br>
+	 * A failed message is retried at the next reception, when the queue maximum number of attempts is reached 
+	 * it is no longer retried (deleted in "delete" mode, registered in the index in incremental mode)
+	 * @param deadLetterQueue the dead-letter queue (null for none)
+	 */
+	public void setDeadLetterQueue(DeadLetterQueue deadLetterQueue) {
+		this.deadLetterQueue = deadLetterQueue;
+	}
+
+	/**
+	 * Activates the duplicate detection : a message already processed (by this receiver or by any receiver 
+	 * sharing the same cache, e.g. a message sent to several accounts) is not parsed nor processed again <br>
+	 * The raw content is downloaded to compute the message digest ( see 'DuplicateMessageDetector' ). 
+	 * A duplicate is considered as processed successfully (deleted in "delete" mode, registered in the index) 
+	 * but is not returned by 'readMessages'.
+	 * @param duplicateCache the cache (null to deactivate)
+	 */
+	public void setDuplicateCache(DuplicateMessageCache duplicateCache) {
+		this.duplicateDetector = ( duplicateCache != null ) ? new DuplicateMessageDetector(duplicateCache) : null ;
+	}
+
+	/**
+	 * Activates the incremental mode : the POP3 UID (UIDL) of each message processed successfully is stored 
+	 * in an index (one index file per server, user and folder in the given directory) 
+	 * and the messages already in the index are ignored (not downloaded, not processed) <br>
+	 * Useful when the messages are not deleted after processing ( see DO_NOT_DELETE_MSG )
+	 * @param seenMessageIndexDirectory the directory where to store the index files (null to deactivate)
+	 */
+	public void setSeenMessageIndexDirectory(String seenMessageIndexDirectory) {
+		this.seenMessageIndexDirectory = seenMessageIndexDirectory != null ? new File(seenMessageIndexDirectory) : null ;
+	}
+
 	/**
 	 * Reads messages for the given user account ( use default mail folder : "INBOX" )
 	 * @param mailAccount
@@ -53,18 +441,261 @@ public class MailReceiver {
 	 * @throws MailReceiverException
 	 */
 	public List<MailMessage> readMessages(MailAccount mailAccount, String folderName, boolean deleteReadMessages) throws MailReceiverException {
-		// Store implements AutoCloseable
-		try (Store store = connectToStore(mailAccount.getUserName(), mailAccount.getUserPassword()) ) {
+		List<MailMessage> messagesReceived = new ArrayList<>();
+		receiveMessages(mailAccount, folderName, deleteReadMessages, messagesReceived::add);
+		return messagesReceived;
+	}
+
+	/**
+	 * Receives and processes messages for the given user account ( use default mail folder : "INBOX" ) <br>
+	 * Messages are fetched, built and processed one at a time and are not retained after processing, 
+	 * so the memory used does not depend on the mailbox size.
+	 * @param mailAccount
+	 * @param deleteReadMessages
+	 * @return the number of messages processed
+	 * @throws MailReceiverException
+	 */
+	public int receiveMessages(MailAccount mailAccount, boolean deleteReadMessages) throws MailReceiverException {
+		return receiveMessages(mailAccount, "INBOX", deleteReadMessages);
+	}
+
+	/**
+	 * Receives and processes messages for the given user and the given mail folder <br>
+	 * Messages are fetched, built and processed one at a time and are not retained after processing.
+	 * @param mailAccount
+	 * @param folderName
+	 * @param deleteReadMessages
+	 * @return the number of messages processed
+	 * @throws MailReceiverException
+	 */
+	public int receiveMessages(MailAccount mailAccount, String folderName, boolean deleteReadMessages) throws MailReceiverException {
+		return receiveMessages(mailAccount, folderName, deleteReadMessages, null);
+	}
+
+	/**
+	 * Downloads the messages of the given user account ( default mail folder : "INBOX" ) in the given spool 
+	 * without parsing nor processing them <br>
+	 * The raw messages are streamed to the spool and synchronized on the disk by groups of messages ( see 'setSpoolSyncInterval' ) : 
+	 * the messages are deleted (in "delete" mode) only once durable in the spool. 
+	 * The server connection is kept only for the download, the spooled messages are processed later 
+	 * ( see 'MailSpoolConsumer' ). <br>
+	 * In incremental mode ( see 'setSeenMessageIndexDirectory' ) the messages already spooled are not downloaded again. 
+	 * Without index, a message spooled and not deleted (connection lost before the folder closing) is spooled again 
+	 * at the next call : the consumer can receive it twice.
+	 * @param mailAccount
+	 * @param spool
+	 * @param deleteReadMessages
+	 * @return the number of messages spooled
+	 * @throws MailReceiverException
+	 */
+	public int spoolMessages(MailAccount mailAccount, MailSpool spool, boolean deleteReadMessages) throws MailReceiverException {
+		String folderName = "INBOX" ;
+		Store store = acquireStore(mailAccount);
+		boolean succeeded = false ;
+		SeenMessageIndex seenMessageIndex = null ;
+		try {
+			Folder folder = getFolder(store, folderName);
+			seenMessageIndex = getSeenMessageIndex(mailAccount, folderName);
+			int spooled = spoolFolderMessages(folder, spool, deleteReadMessages, seenMessageIndex);
+			closeSeenMessageIndex(seenMessageIndex);
+			succeeded = true ;
+			return spooled;
+		} catch ( MessagingException e ) {
+			throw new MailReceiverException("Cannot read messages (MessagingException)", e);
+		} finally {
+			if ( ! succeeded ) {
+				closeSeenMessageIndexQuietly(seenMessageIndex);
+			}
+			releaseStore(store, succeeded);
+		}
+	}
+	
+	private int spoolFolderMessages(Folder folder, MailSpool spool, boolean deleteReadMessages, SeenMessageIndex seenMessageIndex) 
+			throws MessagingException, MailReceiverException {
+		folder.open(deleteReadMessages ? Folder.READ_WRITE : Folder.READ_ONLY);
+		int count = folder.getMessageCount();
+		String[] uids = ( seenMessageIndex != null ) ? fetchUids(folder) : null ;
+		// messages spooled and not yet durable (by message number - 1)
+		List<Integer> pending = new ArrayList<>(spoolSyncInterval);
+		List<MailSpoolEntry> pendingEntries = new ArrayList<>(spoolSyncInterval);
+		int spooled = 0 ;
+		try {
+			for (int messageNumber = 1 ; messageNumber <= count ; messageNumber++ ) {
+				String uid = ( uids != null ) ? uids[messageNumber - 1] : null ;
+				if ( seenMessageIndex != null && seenMessageIndex.contains(uid) ) {
+					continue;
+				}
+				Message message = folder.getMessage(messageNumber);
+				// raw message streamed to the spool (POP3 "RETR")
+				long start = metrics.startTimer();
+				MailSpoolEntry entry = spool.append(uid, message);
+				metrics.stopTimer(Phase.FETCH, start);
+				metrics.increment(Counter.MESSAGES, 1);
+				metrics.increment(Counter.BYTES, entry.getLength());
+				releaseMessageContent(message);
+				pending.add(messageNumber);
+				pendingEntries.add(entry);
+				spooled++;
+				if ( pending.size() >= spoolSyncInterval ) {
+					commitSpooledMessages(folder, spool, pending, pendingEntries, deleteReadMessages, seenMessageIndex, uids);
+				}
+			}
+			commitSpooledMessages(folder, spool, pending, pendingEntries, deleteReadMessages, seenMessageIndex, uids);
+		} finally {
+			// pass failed : the messages not committed are neither deleted nor indexed, they must not be indexed by a later 'sync'
+			spool.discard(pendingEntries);
+		}
+		if ( seenMessageIndex != null ) {
+			seenMessageIndex.flush();
+		}
+		long start = metrics.startTimer();
+		folder.close(deleteReadMessages);
+		metrics.stopTimer(Phase.EXPUNGE, start);
+		return spooled;
+	}
+	
+	/**
+	 * Makes the pending messages durable in the spool and then marks them as deleted / registers them in the index 
+	 */
+	private void commitSpooledMessages(Folder folder, MailSpool spool, List<Integer> pending, List<MailSpoolEntry> pendingEntries, 
+			boolean deleteReadMessages, SeenMessageIndex seenMessageIndex, String[] uids) throws MessagingException, MailReceiverException {
+		spool.sync();
+		pendingEntries.clear();
+		for ( int messageNumber : pending ) {
+			if ( seenMessageIndex != null ) {
+				seenMessageIndex.add(uids[messageNumber - 1]);
+			}
+			if ( deleteReadMessages ) {
+				folder.getMessage(messageNumber).setFlag(Flags.Flag.DELETED, true);
+			}
+		}
+		pending.clear();
+	}
+
+	private int receiveMessages(MailAccount mailAccount, String folderName, boolean deleteReadMessages, 
+			Consumer<MailMessage> collector) throws MailReceiverException {
+		Store store = acquireStore(mailAccount);
+		boolean succeeded = false ;
+		SeenMessageIndex seenMessageIndex = null ;
+		try {
 			// opens the inbox folder
 			Folder folder = getFolder(store, folderName);
-			return readAndProcessMessages(folder, deleteReadMessages);
+			seenMessageIndex = getSeenMessageIndex(mailAccount, folderName);
+			int processed = readAndProcessMessages(mailAccount, folder, deleteReadMessages, collector, seenMessageIndex);
+			closeSeenMessageIndex(seenMessageIndex);
+			succeeded = true ;
+			return processed;
 		} catch ( MessagingException e ) {
 			throw new MailReceiverException("Cannot read messages (MessagingException)", e);
+		} finally {
+			if ( ! succeeded ) {
+				closeSeenMessageIndexQuietly(seenMessageIndex);
+			}
+			releaseStore(store, succeeded);
 		}
 	}
 
-	private Store connectToStore(String userName, String password) throws MailReceiverException {
-		Session session = Session.getDefaultInstance(properties);
+	/**
+	 * Closes the index file at the end of a call (no file descriptor kept between two polls) <br>
+	 * The index stays in memory and its file is reopened in append mode at the next addition
+	 * @param seenMessageIndex the index (can be null)
+	 * @throws MailReceiverException
+	 */
+	private void closeSeenMessageIndex(SeenMessageIndex seenMessageIndex) throws MailReceiverException {
+		if ( seenMessageIndex != null ) {
+			seenMessageIndex.close();
+		}
+	}
+
+	private void closeSeenMessageIndexQuietly(SeenMessageIndex seenMessageIndex) {
+		try {
+			closeSeenMessageIndex(seenMessageIndex);
+		} catch (MailReceiverException e) {
+			// the error of the call is reported
+		}
+	}
+
+	/**
+	 * Releases the indexes kept in memory ( see 'setSeenMessageIndexDirectory' ) <br>
+	 * The receiver can still be used after this call : the indexes are reloaded when needed
+	 * @throws MailReceiverException
+	 */
+	@Override
+	public void close() throws MailReceiverException {
+		synchronized (seenMessageIndexes) {
+			try {
+				for ( SeenMessageIndex seenMessageIndex : seenMessageIndexes.values() ) {
+					seenMessageIndex.close();
+				}
+			} finally {
+				seenMessageIndexes.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the index for the given account and folder (or null if the incremental mode is not active) <br>
+	 * The indexes are kept in memory once loaded ( see 'close' ) 
+	 * @param mailAccount
+	 * @param folderName
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	private SeenMessageIndex getSeenMessageIndex(MailAccount mailAccount, String folderName) throws MailReceiverException {
+		if ( seenMessageIndexDirectory == null ) {
+			return null;
+		}
+		String fileName = (getHost() + "-" + mailAccount.getUserName() + "-" + folderName).replaceAll("[^A-Za-z0-9._@-]", "_") + ".uidl" ;
+		File file = new File(seenMessageIndexDirectory, fileName);
+		synchronized (seenMessageIndexes) {
+			SeenMessageIndex seenMessageIndex = seenMessageIndexes.get(file);
+			if ( seenMessageIndex == null ) {
+				seenMessageIndex = new SeenMessageIndex(file);
+				seenMessageIndexes.put(file, seenMessageIndex);
+			}
+			return seenMessageIndex;
+		}
+	}
+
+	private Store acquireStore(MailAccount mailAccount) throws MailReceiverException {
+		long start = metrics.startTimer();
+		Session session = SESSION_CACHE.getSession(properties);
+		try {
+			if ( storeManager != null ) {
+				return storeManager.acquire(session, PROTOCOL, getHost(), mailAccount);
+			}
+			else {
+				return connectToStore(session, mailAccount.getUserName(), mailAccount.getUserPassword());
+			}
+		} catch (MailReceiverException e) {
+			metrics.increment(Counter.FAILURES, 1);
+			throw e;
+		} finally {
+			metrics.stopTimer(Phase.CONNECT, start);
+		}
+	}
+
+	private void releaseStore(Store store, boolean succeeded) throws MailReceiverException {
+		if ( storeManager != null ) {
+			if ( succeeded ) {
+				storeManager.release(store, getHost());
+			}
+			else {
+				storeManager.invalidate(store, getHost());
+			}
+		}
+		else {
+			try {
+				store.close();
+			} catch (MessagingException e) {
+				if ( succeeded ) {
+					throw new MailReceiverException("Cannot close Store", e);
+				}
+			}
+		}
+	}
+
+	private Store connectToStore(Session session, String userName, String password) throws MailReceiverException {
 		try {
 			// connects to the message store
 			Store store = session.getStore(PROTOCOL);
@@ -85,32 +716,111 @@ public class MailReceiver {
 		}
 	}
 	
-	private List<MailMessage> readAndProcessMessages(Folder folder, boolean deleteReadMessages ) throws MessagingException, MailReceiverException {
-		List<MailMessage> messagesReceived = new LinkedList<>();
+	private MessageDispatcher createDispatcher() {
+		boolean abortOnFailure = ( failurePolicy == MailFailurePolicy.ABORT );
+		if ( batchProcessor != null ) {
+			return new BatchMessageDispatcher(batchProcessor, metrics, batchSize, batchLingerMillis, abortOnFailure);
+		}
+		else if ( asyncProcessor != null ) {
+			return new AsyncMessageDispatcher(asyncProcessor, metrics, maxInFlightMessages, abortOnFailure);
+		}
+		else if ( processingWorkers > 1 ) {
+			return new PooledMessageDispatcher(processor, metrics, processingWorkers, processingWorkers * 2, abortOnFailure);
+		}
+		else {
+			return new DirectMessageDispatcher(processor, metrics, abortOnFailure);
+		}
+	}
+	
+	/**
+	 * Returns the dispatcher for the large messages : same processor with a specific concurrency limit 
+	 * @return
+	 */
+	private MessageDispatcher createLargeMessageDispatcher() {
+		boolean abortOnFailure = ( failurePolicy == MailFailurePolicy.ABORT );
+		if ( batchProcessor != null ) {
+			return new BatchMessageDispatcher(batchProcessor, metrics, largeMessageWorkers, batchLingerMillis, abortOnFailure);
+		}
+		else if ( asyncProcessor != null ) {
+			return new AsyncMessageDispatcher(asyncProcessor, metrics, largeMessageWorkers, abortOnFailure);
+		}
+		else if ( largeMessageWorkers > 1 ) {
+			return new PooledMessageDispatcher(processor, metrics, largeMessageWorkers, largeMessageWorkers, abortOnFailure);
+		}
+		else {
+			return new DirectMessageDispatcher(processor, metrics, abortOnFailure);
+		}
+	}
+	
+	private boolean isLargeMessage(Message message) throws MessagingException {
+		return largeMessageThreshold > 0 && message.getSize() > largeMessageThreshold ;
+	}
+	
+	private boolean isDeadLetterActive() {
+		return failurePolicy == MailFailurePolicy.CONTINUE && deadLetterQueue != null ;
+	}
+
+	/**
+	 * Reads and processes the folder messages one by one <br>
+	 * The messages are retrieved by number (not with 'getMessages()') and the content of each message 
+	 * is released as soon as it has been processed. <br>
+	 * The headers are prefetched by batches of messages ( see 'setPrefetchBatchSize' )
+	 * @param mailAccount
+	 * @param folder
+	 * @param deleteReadMessages
+	 * @param collector optional consumer retaining the messages (can be null)
+	 * @param seenMessageIndex index of the messages already processed (can be null)
+	 * @return the number of messages processed
+	 * @throws MessagingException
+	 * @throws MailReceiverException
+	 */
+	private int readAndProcessMessages(MailAccount mailAccount, Folder folder, boolean deleteReadMessages, Consumer<MailMessage> collector, 
+			SeenMessageIndex seenMessageIndex) throws MessagingException, MailReceiverException {
 		// Open server folder with mode READ_ONLY or READ_WRITE for messages deletion 
 		folder.open(deleteReadMessages ? Folder.READ_WRITE : Folder.READ_ONLY);
-		// fetches new messages from server
-		Message[] messages = folder.getMessages();
-		// process each message
-		for (Message message : messages) {
-			// Build "MailMessage" instance from raw Java mail message 
-			MailMessage messageReceived = mailMessageBuilder.buildMailMessage(message, attachementsDirectory);
-			
-			// Delegate message processing to external service
-			boolean messageProcessingIsOK = false;
-			try {
-				messageProcessingIsOK = processor.processMessage(messageReceived);
-			} catch (Exception e) {
-				throw new MailReceiverException("Message processing error", e);
-			}
-			messageReceived.setProcessingOK(messageProcessingIsOK);
-			
-			// Register message
-			messagesReceived.add(messageReceived); 
-			// Mark the message for future deletion if in "delete" mode
-			if ( deleteReadMessages && messageProcessingIsOK ) {
-				message.setFlag(Flags.Flag.DELETED, true); // Folder must be in READ_WRITE mode
+		// number of messages in the folder (messages are numbered from 1 to count)
+		int count = folder.getMessageCount();
+		// UIDs of all the messages (only in incremental mode, for a pipelined deletion or to identify the failed messages)
+		boolean deferredDeletion = deleteReadMessages && isPipelinedDeletionAvailable(folder) ;
+		String[] uids = ( seenMessageIndex != null || deferredDeletion || isDeadLetterActive() ) ? fetchUids(folder) : null ;
+		ReceiveSession session ;
+		try ( MessageDispatcher dispatcher = createDispatcher() ) {
+			session = new ReceiveSession(deleteReadMessages, deferredDeletion, collector, seenMessageIndex, dispatcher);
+			// process the messages by batches
+			int batchSize = Math.max(prefetchBatchSize, 1);
+			List<Message> batch = new ArrayList<>(batchSize);
+			List<String> batchUids = new ArrayList<>(batchSize);
+			for (int messageNumber = 1 ; messageNumber <= count ; messageNumber++ ) {
+				String uid = ( uids != null ) ? uids[messageNumber - 1] : null ;
+				if ( session.isSeen(uid) ) {
+					// already processed => ignored (headers and content are not downloaded)
+					continue;
+				}
+				// lightweight reference, headers and content loaded on demand
+				batch.add(folder.getMessage(messageNumber));
+				batchUids.add(uid);
+				if ( batch.size() >= batchSize ) {
+					processBatch(folder, batch, batchUids, session);
+				}
 			}
+			processBatch(folder, batch, batchUids, session);
+			// wait for the end of all the messages processing before closing the folder
+			dispatcher.awaitCompletion();
+			completeMessages(dispatcher.completed(), session);
+		}
+		if ( ! session.getLargeMessages().isEmpty() ) {
+			processLargeMessages(session);
+		}
+		int processed = session.getProcessed();
+		List<String> deferredDeletions = session.getDeferredDeletions();
+		if ( ! deferredDeletions.isEmpty() && deferredDeletions.size() < minPipelinedDeletions ) {
+			// too few messages for a second session : deleted at the folder closing (lock-step)
+			markForDeletion(folder, uids, deferredDeletions);
+			deferredDeletions = Collections.emptyList();
+		}
+		if ( seenMessageIndex != null ) {
+			// the index is saved before the deletion : a message deleted is never processed twice 
+			seenMessageIndex.flush();
 		}
 		// Close server folder with "expunge" flag = true if deletion required 
 		// param 'expunge' : expunges all deleted messages if this flag is true
@@ -118,7 +828,392 @@ public class MailReceiver {
 		// if (expunge && mode == READ_WRITE && !forceClose) 
 		//    if (message.isSet(Flags.Flag.DELETED))
 		//       port.dele(i + 1);  // POP3 protocol "DELE x"
+		long start = metrics.startTimer();
 		folder.close(deleteReadMessages); 
-		return messagesReceived;
+		if ( ! deferredDeletions.isEmpty() ) {
+			// the first POP3 session is closed : the messages can be deleted by UID in a new session
+			deleteByUid(mailAccount, folder, deferredDeletions);
+		}
+		metrics.stopTimer(Phase.EXPUNGE, start);
+		if ( seenMessageIndex != null && uids != null ) {
+			// forget the messages no longer in the mailbox 
+			seenMessageIndex.compact(Arrays.asList(uids));
+		}
+		return processed;
+	}
+
+	/**
+	 * Returns true if the messages can be deleted with pipelined "DELE" commands in a second session 
+	 * (pipelining activated, advertised by the server and USER/PASS authentication)
+	 * @param folder the open folder
+	 * @return
+	 * @throws MessagingException
+	 */
+	private boolean isPipelinedDeletionAvailable(Folder folder) throws MessagingException {
+		if ( ! pipelining || ! new Pop3UidDeleter(properties, PROTOCOL).supportsAuthentication() ) {
+			return false;
+		}
+		Store store = folder.getStore();
+		return ( store instanceof POP3Store ) && ((POP3Store) store).capabilities().containsKey("PIPELINING");
+	}
+	
+	/**
+	 * Marks the messages with the given UIDs as deleted in the open folder
+	 * @param folder
+	 * @param folderUids the UIDs of all the messages in the folder
+	 * @param uids the UIDs of the messages to delete
+	 * @throws MessagingException
+	 */
+	private void markForDeletion(Folder folder, String[] folderUids, List<String> uids) throws MessagingException {
+		Set<String> uidsToDelete = new HashSet<>(uids);
+		for ( int i = 0 ; i < folderUids.length ; i++ ) {
+			if ( uidsToDelete.contains(folderUids[i]) ) {
+				folder.getMessage(i + 1).setFlag(Flags.Flag.DELETED, true);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the given messages by UID after the folder closing <br>
+	 * The store of the receive session is still held : the second session does not exceed the number of 
+	 * connections per host ( see 'StoreManager' ). If the second session fails, the messages are deleted 
+	 * through the store (the folder is opened again).
+	 * @param mailAccount
+	 * @param folder the closed folder
+	 * @param uids
+	 * @throws MailReceiverException
+	 */
+	private void deleteByUid(MailAccount mailAccount, Folder folder, List<String> uids) throws MailReceiverException {
+		try {
+			new Pop3UidDeleter(properties, PROTOCOL).deleteByUid(mailAccount, uids);
+		} catch (MailReceiverException e) {
+			try {
+				folder.open(Folder.READ_WRITE);
+				markForDeletion(folder, fetchUids(folder), uids);
+				folder.close(true);
+			} catch (MessagingException e2) {
+				MailReceiverException error = new MailReceiverException("Cannot delete messages by UID", e2);
+				error.addSuppressed(e);
+				throw error;
+			}
+		}
+	}
+
+	private void processBatch(Folder folder, List<Message> batch, List<String> batchUids, ReceiveSession session) throws MessagingException, MailReceiverException {
+		prefetch(folder, batch);
+		for ( int i = 0 ; i < batch.size() ; i++ ) {
+			Message message = batch.get(i);
+			if ( isLargeMessage(message) ) {
+				// processed after the other messages
+				session.addLargeMessage(message, batchUids.get(i));
+			}
+			else {
+				processMessage(message, batchUids.get(i), session);
+			}
+		}
+		batch.clear();
+		batchUids.clear();
+	}
+	
+	/**
+	 * Processes the large messages set aside during the reception, with their own dispatcher 
+	 * @param session
+	 * @throws MessagingException
+	 * @throws MailReceiverException
+	 */
+	private void processLargeMessages(ReceiveSession session) throws MessagingException, MailReceiverException {
+		List<Message> largeMessages = session.getLargeMessages();
+		List<String> largeMessageUids = session.getLargeMessageUids();
+		try ( MessageDispatcher largeMessageDispatcher = createLargeMessageDispatcher() ) {
+			session.setDispatcher(largeMessageDispatcher);
+			for ( int i = 0 ; i < largeMessages.size() ; i++ ) {
+				processMessage(largeMessages.get(i), largeMessageUids.get(i), session, true);
+			}
+			largeMessageDispatcher.awaitCompletion();
+			completeMessages(largeMessageDispatcher.completed(), session);
+		}
+	}
+	
+	/**
+	 * Loads the headers (envelope and content info) of a batch of messages with a single 'fetch' call <br>
+	 * (with POP3 : "TOP n 0" for each message, without any other request in between)
+	 * @param folder
+	 * @param batch
+	 * @throws MessagingException
+	 */
+	private void prefetch(Folder folder, List<Message> batch) throws MessagingException {
+		if ( prefetchBatchSize > 0 && ! batch.isEmpty() ) {
+			long start = metrics.startTimer();
+			FetchProfile fetchProfile = new FetchProfile();
+			fetchProfile.add(FetchProfile.Item.ENVELOPE);
+			fetchProfile.add(FetchProfile.Item.CONTENT_INFO);
+			fetchProfile.add(FetchProfile.Item.SIZE);
+			folder.fetch(batch.toArray(new Message[0]), fetchProfile);
+			metrics.stopTimer(Phase.FETCH, start);
+		}
+	}
+	
+	/**
+	 * Builds, filters and dispatches a message 
+	 * @param message
+	 * @param uid
+	 * @param session
+	 * @throws MessagingException
+	 * @throws MailReceiverException
+	 */
+	private void processMessage(Message message, String uid, ReceiveSession session) throws MessagingException, MailReceiverException {
+		processMessage(message, uid, session, lazyContent);
+	}
+	
+	/**
+	 * Builds, filters and dispatches a message 
+	 * @param message
+	 * @param uid
+	 * @param session
+	 * @param lazy true to load the content on demand 
+	 * @throws MessagingException
+	 * @throws MailReceiverException
+	 */
+	private void processMessage(Message message, String uid, ReceiveSession session, boolean lazy) throws MessagingException, MailReceiverException {
+		// Build "MailMessage" instance from raw Java mail message header (POP3 "TOP", no "RETR")
+		long start = metrics.startTimer();
+		MailMessage messageReceived = mailMessageBuilder.buildMailMessageHeader(message);
+		metrics.stopTimer(Phase.FETCH, start);
+		if ( ! acceptMessage(messageReceived) ) {
+			// rejected => content not downloaded
+			if ( session.getSeenMessageIndex() != null ) {
+				session.getSeenMessageIndex().add(uid);
+			}
+			releaseMessageContent(message);
+			return;
+		}
+		String duplicateKey = null ;
+		if ( duplicateDetector != null ) {
+			// digest of the raw content (POP3 "RETR") before any parsing
+			boolean duplicateFound ;
+			try {
+				downloadContent(message, session);
+				duplicateKey = duplicateDetector.getKey(message, messageReceived.getMessageId());
+				duplicateFound = duplicateDetector.isDuplicate(duplicateKey);
+			} catch (MailReceiverException e) {
+				failMessage(message, messageReceived, uid, e, session);
+				return;
+			}
+			if ( duplicateFound ) {
+				metrics.increment(Counter.DUPLICATES, 1);
+				messageReceived.setProcessingOK(true);
+				ReceivedMessage duplicate = new ReceivedMessage(message, messageReceived, uid);
+				duplicate.setDuplicate(true);
+				completeMessages(List.of(duplicate), session);
+				return;
+			}
+		}
+		if ( lazy ) {
+			// Message content retrieved and parsed on first access (POP3 "RETR")
+			messageReceived.setContentLoader(m -> {
+				downloadContent(message, session);
+				mailMessageBuilder.parseMailMessageContent(message, m, attachmentStore);
+			});
+		}
+		else {
+			// Retrieve and parse the message content (POP3 "RETR")
+			try {
+				downloadContent(message, session);
+				mailMessageBuilder.parseMailMessageContent(message, messageReceived, attachmentStore);
+			} catch (MailReceiverException e) {
+				failMessage(message, messageReceived, uid, e, session);
+				return;
+			}
+		}
+		// Delegate message processing to external service
+		MessageDispatcher dispatcher = session.getDispatcher();
+		ReceivedMessage receivedMessage = new ReceivedMessage(message, messageReceived, uid);
+		receivedMessage.setDuplicateKey(duplicateKey);
+		dispatcher.dispatch(receivedMessage);
+		completeMessages(dispatcher.completed(), session);
+	}
+
+	/**
+	 * Handles a message that cannot be processed, according to the failure policy 
+	 * @param message
+	 * @param messageReceived
+	 * @param uid
+	 * @param failure
+	 * @param session
+	 * @throws MessagingException
+	 * @throws MailReceiverException the failure if the policy is ABORT
+	 */
+	private void failMessage(Message message, MailMessage messageReceived, String uid, MailReceiverException failure, 
+			ReceiveSession session) throws MessagingException, MailReceiverException {
+		if ( failurePolicy == MailFailurePolicy.ABORT ) {
+			throw failure;
+		}
+		// not processed : the failure is handled with the completed messages
+		ReceivedMessage failedMessage = new ReceivedMessage(message, messageReceived, uid);
+		failedMessage.setFailure(failure);
+		completeMessages(List.of(failedMessage), session);
+	}
+
+	/**
+	 * Downloads the raw content of a message (POP3 "RETR") in memory or in the file cache, before its parsing <br>
+	 * One download at a time in the folder : the content can be loaded by several worker threads and 
+	 * the POP3 file cache supports only one download at a time (the POP3 commands are serialized anyway)
+	 * @param message
+	 * @param session
+	 * @throws MailReceiverException
+	 */
+	private void downloadContent(Message message, ReceiveSession session) throws MailReceiverException {
+		if ( message instanceof POP3Message ) {
+			synchronized (session.getDownloadLock()) {
+				try {
+					// downloaded : the content is then read from the memory or from the file cache
+					((POP3Message) message).getRawInputStream().close();
+				} catch (IOException | MessagingException e) {
+					throw new MailReceiverException("Cannot download message content", e);
+				}
+			}
+		}
+	}
+
+	private boolean acceptMessage(MailMessage messageReceived) throws MailReceiverException {
+		if ( messageFilter != null ) {
+			try {
+				return messageFilter.accept(messageReceived);
+			} catch (Exception e) {
+				throw new MailReceiverException("Message filter error", e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fetches the UIDs of all the folder messages with a single POP3 "UIDL" command
+	 * @param folder
+	 * @return the UIDs by message number - 1 (or null if the folder is not a POP3 folder)
+	 * @throws MessagingException
+	 */
+	private String[] fetchUids(Folder folder) throws MessagingException {
+		if ( folder instanceof POP3Folder ) {
+			POP3Folder pop3Folder = (POP3Folder) folder;
+			Message[] messages = folder.getMessages();
+			FetchProfile fetchProfile = new FetchProfile();
+			fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+			pop3Folder.fetch(messages, fetchProfile);
+			String[] uids = new String[messages.length];
+			for ( int i = 0 ; i < messages.length ; i++ ) {
+				uids[i] = pop3Folder.getUID(messages[i]);
+			}
+			return uids;
+		}
+		else {
+			return null;
+		}
+	}
+
+	/**
+	 * Finalizes the processed messages (always in the thread owning the folder)
+	 * @param receivedMessages
+	 * @param session
+	 * @throws MessagingException
+	 */
+	private void completeMessages(List<ReceivedMessage> receivedMessages, ReceiveSession session) throws MessagingException, MailReceiverException {
+		Consumer<MailMessage> collector = session.getCollector();
+		SeenMessageIndex seenMessageIndex = session.getSeenMessageIndex();
+		for ( ReceivedMessage receivedMessage : receivedMessages ) {
+			MailMessage messageReceived = receivedMessage.getMailMessage();
+			Message message = receivedMessage.getMessage();
+			if ( receivedMessage.getFailure() != null ) {
+				completeFailedMessage(receivedMessage, session);
+				continue;
+			}
+			boolean collected = collector != null && ! receivedMessage.isDuplicate() ;
+			if ( collected ) {
+				// the content must be available after the folder is closed 
+				try {
+					messageReceived.loadContent();
+				} catch (MailReceiverException e) {
+					if ( failurePolicy == MailFailurePolicy.ABORT ) {
+						throw e;
+					}
+					receivedMessage.setFailure(e);
+					completeFailedMessage(receivedMessage, session);
+					continue;
+				}
+			}
+			session.incrementProcessed();
+			metrics.increment(Counter.MESSAGES, 1);
+			metrics.increment(Counter.BYTES, Math.max(messageReceived.getSize(), 0));
+			// Register message (only if the caller wants to keep it)
+			if ( collected ) {
+				collector.accept(messageReceived);
+			}
+			// the content not accessed during processing cannot be loaded later 
+			messageReceived.releaseContentLoader();
+			// Register the message as processed (incremental mode)
+			if ( seenMessageIndex != null && messageReceived.isProcessingOK() ) {
+				seenMessageIndex.add(receivedMessage.getUid());
+			}
+			// Mark the message for future deletion if in "delete" mode
+			if ( messageReceived.isProcessingOK() ) {
+				markForDeletion(receivedMessage, session);
+				if ( isDeadLetterActive() && receivedMessage.getUid() != null ) {
+					// processed after a previous failure 
+					deadLetterQueue.remove(receivedMessage.getUid());
+				}
+				if ( receivedMessage.getDuplicateKey() != null ) {
+					duplicateDetector.registerProcessed(receivedMessage.getDuplicateKey());
+				}
+			}
+			// Release the message content kept in memory by the POP3 provider (headers and flags are kept)
+			releaseMessageContent(message);
+		}
+	}
+
+	/**
+	 * Finalizes a message that cannot be parsed or processed (CONTINUE policy) : <br>
+	 * the message is recorded in the dead-letter queue (if any) and is not deleted, 
+	 * unless the maximum number of attempts is reached 
+	 * @param receivedMessage
+	 * @param session
+	 * @throws MessagingException
+	 * @throws MailReceiverException
+	 */
+	private void completeFailedMessage(ReceivedMessage receivedMessage, ReceiveSession session) throws MessagingException, MailReceiverException {
+		MailMessage messageReceived = receivedMessage.getMailMessage();
+		messageReceived.releaseContentLoader();
+		if ( deadLetterQueue != null ) {
+			String key = receivedMessage.getUid() != null ? receivedMessage.getUid() : messageReceived.getMessageId() ;
+			if ( key != null ) {
+				int attempts = deadLetterQueue.record(key, receivedMessage.getMessage(), messageReceived.getMessageId(), 
+						receivedMessage.getFailure());
+				if ( deadLetterQueue.isExhausted(attempts) ) {
+					// given up : no longer retried (the message is kept in the dead-letter queue)
+					if ( session.getSeenMessageIndex() != null ) {
+						session.getSeenMessageIndex().add(receivedMessage.getUid());
+					}
+					markForDeletion(receivedMessage, session);
+				}
+			}
+		}
+		releaseMessageContent(receivedMessage.getMessage());
+	}
+
+	private void markForDeletion(ReceivedMessage receivedMessage, ReceiveSession session) throws MessagingException {
+		if ( session.isDeleteReadMessages() ) {
+			if ( session.isDeferredDeletion() && receivedMessage.getUid() != null ) {
+				// deleted by UID after the folder closing (pipelined)
+				session.addDeferredDeletion(receivedMessage.getUid());
+			}
+			else {
+				receivedMessage.getMessage().setFlag(Flags.Flag.DELETED, true); // Folder must be in READ_WRITE mode
+			}
+		}
+	}
+
+	private void releaseMessageContent(Message message) {
+		if ( message instanceof POP3Message ) {
+			// invalidate(false) : drops the cached content, keeps the headers 
+			((POP3Message) message).invalidate(false);
+		}
 	}
 }
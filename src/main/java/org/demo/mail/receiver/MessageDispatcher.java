@@ -0,0 +1,34 @@
+package org.demo.mail.receiver;
+
+import java.util.List;
+
+/**
+ * Dispatches the received messages to the message processor <br>
+ * The processing result is stored in the MailMessage ( see 'isProcessingOK()' ) <br>
+ * The processed messages are returned by 'completed()' in order to be finalized 
+ * (flags, etc) by the thread owning the folder.
+ */
+interface MessageDispatcher extends AutoCloseable {
+
+	/**
+	 * Dispatches the given message (can block if too many messages are waiting to be processed)
+	 * @param receivedMessage
+	 * @throws MailReceiverException if the processing of a previous message has failed
+	 */
+	void dispatch(ReceivedMessage receivedMessage) throws MailReceiverException;
+	
+	/**
+	 * Returns the messages processed since the last call 
+	 * @return
+	 */
+	List<ReceivedMessage> completed();
+	
+	/**
+	 * Waits until all the dispatched messages are processed 
+	 * @throws MailReceiverException if the processing of a message has failed
+	 */
+	void awaitCompletion() throws MailReceiverException;
+	
+	@Override
+	void close();
+}
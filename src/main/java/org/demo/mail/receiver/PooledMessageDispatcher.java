@@ -0,0 +1,160 @@
+package org.demo.mail.receiver;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
+
+/**
+ * Message dispatcher processing the messages with a pool of workers <br>
+ * The number of messages dispatched and not yet processed is limited (back-pressure) : 
+ * 'dispatch' blocks the caller (the thread fetching the messages) when the limit is reached. <br>
+ * Uses virtual threads if available (JDK 21+), a fixed thread pool otherwise. 
+ * In both cases at most 'workers' messages are processed at the same time.
+ */
+class PooledMessageDispatcher implements MessageDispatcher {
+
+	private final MailMessageProcessor processor ;
+	
+	private final MailReceiverMetrics metrics ;
+	
+	private final ExecutorService executor ;
+	
+	private final Semaphore pendingMessages ;
+	
+	// limits the number of messages processed at the same time (virtual threads are not pooled)
+	private final Semaphore runningMessages ;
+	
+	private final int maxPendingMessages ;
+	
+	private final boolean abortOnFailure ;
+
+	private final Queue<ReceivedMessage> completed = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicReference<Exception> firstError = new AtomicReference<>();
+	
+	/**
+	 * Constructor
+	 * @param processor
+	 * @param metrics
+	 * @param workers number of messages processed at the same time
+	 * @param maxPendingMessages maximum number of messages dispatched and not yet processed (must be >= workers)
+	 * @param abortOnFailure true to stop at the first processing error, false to keep the errors in the messages completed
+	 */
+	public PooledMessageDispatcher(MailMessageProcessor processor, MailReceiverMetrics metrics, int workers, int maxPendingMessages,
+			boolean abortOnFailure) {
+		super();
+		if ( workers < 1 ) {
+			throw new IllegalArgumentException("invalid number of workers : " + workers);
+		}
+		if ( maxPendingMessages < workers ) {
+			throw new IllegalArgumentException("maxPendingMessages < workers");
+		}
+		this.processor = processor;
+		this.metrics = metrics;
+		this.executor = createExecutor(workers);
+		this.maxPendingMessages = maxPendingMessages ;
+		this.pendingMessages = new Semaphore(maxPendingMessages);
+		this.runningMessages = new Semaphore(workers);
+		this.abortOnFailure = abortOnFailure;
+	}
+
+	private static ExecutorService createExecutor(int workers) {
+		// Virtual threads are used if the JDK provides them (the concurrency is bounded by 'runningMessages') 
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(workers);
+		}
+	}
+	
+	@Override
+	public void dispatch(ReceivedMessage receivedMessage) throws MailReceiverException {
+		checkError();
+		try {
+			pendingMessages.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for message processing", e);
+		}
+		executor.execute(() -> process(receivedMessage));
+	}
+	
+	private void process(ReceivedMessage receivedMessage) {
+		try {
+			runningMessages.acquire();
+		} catch (InterruptedException e) {
+			// dispatcher closed
+			Thread.currentThread().interrupt();
+			pendingMessages.release();
+			return;
+		}
+		long start = metrics.startTimer();
+		try {
+			if ( firstError.get() == null ) {
+				MailMessage mailMessage = receivedMessage.getMailMessage();
+				// Delegate message processing to external service
+				mailMessage.setProcessingOK(processor.processMessage(mailMessage));
+				completed.add(receivedMessage);
+			}
+		} catch (Exception e) {
+			metrics.increment(Counter.FAILURES, 1);
+			if ( abortOnFailure ) {
+				firstError.compareAndSet(null, e);
+			}
+			else {
+				receivedMessage.setFailure(e);
+				completed.add(receivedMessage);
+			}
+		} finally {
+			metrics.stopTimer(Phase.PROCESS, start);
+			runningMessages.release();
+			pendingMessages.release();
+		}
+	}
+	
+	private void checkError() throws MailReceiverException {
+		Exception e = firstError.get();
+		if ( e != null ) {
+			throw new MailReceiverException("Message processing error", e);
+		}
+	}
+
+	@Override
+	public List<ReceivedMessage> completed() {
+		List<ReceivedMessage> list = new ArrayList<>();
+		ReceivedMessage receivedMessage ;
+		while ( ( receivedMessage = completed.poll() ) != null ) {
+			list.add(receivedMessage);
+		}
+		return list;
+	}
+
+	@Override
+	public void awaitCompletion() throws MailReceiverException {
+		// all the permits are available when all the dispatched messages have been processed
+		try {
+			pendingMessages.acquire(maxPendingMessages);
+			pendingMessages.release(maxPendingMessages);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for message processing", e);
+		}
+		checkError();
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,125 @@
+package org.demo.mail.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.demo.mail.receiver.index.SeenMessageIndex;
+
+import jakarta.mail.Message;
+
+/**
+ * State of a 'readMessages' / 'receiveMessages' call (from the folder opening to the folder closing) 
+ */
+class ReceiveSession {
+
+	private final boolean deleteReadMessages ;
+	private final boolean deferredDeletion ;
+	private final Consumer<MailMessage> collector ;
+	private final SeenMessageIndex seenMessageIndex ;
+	private MessageDispatcher dispatcher ;
+	
+	private int processed = 0 ;
+	
+	private final List<String> deferredDeletions = new ArrayList<>();
+	
+	// large messages set aside, with their UID
+	private final List<Message> largeMessages = new ArrayList<>();
+	private final List<String> largeMessageUids = new ArrayList<>();
+	
+	// one content download at a time in the folder ( see 'MailReceiver.downloadContent' )
+	private final Object downloadLock = new Object();
+	
+	/**
+	 * Constructor
+	 * @param deleteReadMessages
+	 * @param deferredDeletion true if the messages are deleted by UID after the folder closing
+	 * @param collector optional consumer retaining the messages (can be null)
+	 * @param seenMessageIndex index of the messages already processed (can be null)
+	 * @param dispatcher
+	 */
+	public ReceiveSession(boolean deleteReadMessages, boolean deferredDeletion, Consumer<MailMessage> collector, 
+			SeenMessageIndex seenMessageIndex, MessageDispatcher dispatcher) {
+		super();
+		this.deleteReadMessages = deleteReadMessages;
+		this.deferredDeletion = deferredDeletion;
+		this.collector = collector;
+		this.seenMessageIndex = seenMessageIndex;
+		this.dispatcher = dispatcher;
+	}
+
+	public Object getDownloadLock() {
+		return downloadLock;
+	}
+
+	public boolean isDeleteReadMessages() {
+		return deleteReadMessages;
+	}
+
+	public boolean isDeferredDeletion() {
+		return deferredDeletion;
+	}
+
+	public Consumer<MailMessage> getCollector() {
+		return collector;
+	}
+
+	public SeenMessageIndex getSeenMessageIndex() {
+		return seenMessageIndex;
+	}
+
+	public MessageDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	public void setDispatcher(MessageDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Returns true if the given UID is known as already processed (incremental mode)
+	 * @param uid
+	 * @return
+	 */
+	public boolean isSeen(String uid) {
+		return seenMessageIndex != null && seenMessageIndex.contains(uid) ;
+	}
+	
+	public int getProcessed() {
+		return processed;
+	}
+
+	public void incrementProcessed() {
+		processed++;
+	}
+
+	/**
+	 * Returns the UIDs of the messages to be deleted after the folder is closed (pipelined deletion)
+	 * @return
+	 */
+	public List<String> getDeferredDeletions() {
+		return deferredDeletions;
+	}
+
+	public void addDeferredDeletion(String uid) {
+		deferredDeletions.add(uid);
+	}
+
+	/**
+	 * Sets aside a large message, processed after the other messages
+	 * @param message
+	 * @param uid
+	 */
+	public void addLargeMessage(Message message, String uid) {
+		largeMessages.add(message);
+		largeMessageUids.add(uid);
+	}
+
+	public List<Message> getLargeMessages() {
+		return largeMessages;
+	}
+
+	public List<String> getLargeMessageUids() {
+		return largeMessageUids;
+	}
+}
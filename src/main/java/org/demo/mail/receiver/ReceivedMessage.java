@@ -0,0 +1,76 @@
+package org.demo.mail.receiver;
+
+import jakarta.mail.Message;
+
+/**
+ * A message received from the server with its "MailMessage" representation <br>
+ * (the raw Java mail message is kept to be able to set its flags after processing)
+ */
+class ReceivedMessage {
+
+	private final Message message ;
+	private final MailMessage mailMessage ;
+	private final String uid ;
+	private Exception failure ;
+	private String duplicateKey ;
+	private boolean duplicate ;
+	
+	public ReceivedMessage(Message message, MailMessage mailMessage, String uid) {
+		super();
+		this.message = message;
+		this.mailMessage = mailMessage;
+		this.uid = uid;
+	}
+
+	public Message getMessage() {
+		return message;
+	}
+
+	public MailMessage getMailMessage() {
+		return mailMessage;
+	}
+
+	/**
+	 * Returns the POP3 UID of the message (or null if unknown)
+	 * @return
+	 */
+	public String getUid() {
+		return uid;
+	}
+
+	/**
+	 * Returns the error that occurred while parsing or processing the message (or null if none)
+	 * @return
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	public void setFailure(Exception failure) {
+		this.failure = failure;
+	}
+
+	/**
+	 * Returns the key identifying the message in the duplicate cache (or null if no duplicate detection)
+	 * @return
+	 */
+	public String getDuplicateKey() {
+		return duplicateKey;
+	}
+
+	public void setDuplicateKey(String duplicateKey) {
+		this.duplicateKey = duplicateKey;
+	}
+
+	/**
+	 * Returns true if the message has already been processed (not parsed, not processed again)
+	 * @return
+	 */
+	public boolean isDuplicate() {
+		return duplicate;
+	}
+
+	public void setDuplicate(boolean duplicate) {
+		this.duplicate = duplicate;
+	}
+}
@@ -0,0 +1,103 @@
+package org.demo.mail.receiver.archive;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import jakarta.mail.internet.SharedInputStream;
+
+/**
+ * Input stream reading a byte buffer (typically a slice of a memory-mapped file) <br>
+ * Implements 'SharedInputStream' : the MIME parser creates sub-streams for the message content and parts 
+ * instead of copying them in memory.
+ */
+class ByteBufferInputStream extends InputStream implements SharedInputStream {
+
+	// the whole shared buffer
+	private final ByteBuffer root ;
+	
+	// the part of the buffer read by this stream
+	private final ByteBuffer buffer ;
+	
+	// start of this stream in the shared buffer (the positions of 'getPosition' and 'newStream' are relative to it)
+	private final int start ;
+	
+	private int mark = -1 ;
+	
+	/**
+	 * Creates a stream reading the given buffer from its position to its limit 
+	 * @param buffer
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this(buffer.slice(), 0, buffer.remaining());
+	}
+
+	private ByteBufferInputStream(ByteBuffer root, int start, int end) {
+		super();
+		this.root = root;
+		this.start = start;
+		this.buffer = root.duplicate();
+		this.buffer.limit(end);
+		this.buffer.position(start);
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? ( buffer.get() & 0xFF ) : -1 ;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if ( len == 0 ) {
+			return 0;
+		}
+		if ( ! buffer.hasRemaining() ) {
+			return -1;
+		}
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mark = buffer.position();
+	}
+
+	@Override
+	public synchronized void reset() {
+		if ( mark >= 0 ) {
+			buffer.position(mark);
+		}
+	}
+
+	@Override
+	public long getPosition() {
+		return buffer.position() - start ;
+	}
+
+	@Override
+	public InputStream newStream(long start, long end) {
+		if ( start < 0 ) {
+			throw new IllegalArgumentException("start < 0");
+		}
+		int limit = ( end == -1 ) ? buffer.limit() : this.start + (int) end ;
+		return new ByteBufferInputStream(root, this.start + (int) start, limit);
+	}
+}
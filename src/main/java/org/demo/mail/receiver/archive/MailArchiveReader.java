@@ -0,0 +1,356 @@
+package org.demo.mail.receiver.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.demo.mail.receiver.MailMessage;
+import org.demo.mail.receiver.MailMessageProcessor;
+import org.demo.mail.receiver.MailReceiverException;
+import org.demo.mail.receiver.attachment.AttachmentStore;
+import org.demo.mail.receiver.builder.MailMessageBuilder;
+import org.demo.mail.receiver.spool.MailSpool;
+import org.demo.mail.receiver.spool.MailSpoolEntry;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Offline source of messages : processes archived messages (mbox file, maildir directory or mail spool) 
+ * with the same builder and processor as the receiver <br>
+ * The mbox files are memory-mapped by regions : each message is a slice of a 'MappedByteBuffer' (no copy). 
+ * The maildir and spool messages are loaded by the task processing them (and released after) : 
+ * small messages are read in memory, large messages are memory-mapped. 
+ * The messages are parsed and processed in parallel (fork-join) ; the processor must be thread-safe. <br>
+ * The processing stops at the first error (the messages already processed are not processed again 
+ * only if the processor keeps track of them).
+ */
+public class MailArchiveReader {
+
+	// maximum size of a mapped region (a message larger than this size has its own region)
+	private static final long MAX_REGION_SIZE = 1L << 30 ;
+	
+	// size from which a maildir or spool message is memory-mapped instead of being read in memory
+	private static final long MAP_THRESHOLD = 1L << 20 ;
+	
+	// number of messages under which a task is no longer split
+	private static final int SPLIT_THRESHOLD = 16 ;
+	
+	private static final byte[] MBOX_SEPARATOR = { '\n', 'F', 'r', 'o', 'm', ' ' };
+	
+	private final MailMessageBuilder mailMessageBuilder ;
+	private final AttachmentStore attachmentStore ;
+	private final MailMessageProcessor processor ;
+	private final Session session = Session.getInstance(new Properties());
+	
+	/**
+	 * Archived message loaded only when processed 
+	 */
+	private interface RawMessage {
+		ByteBuffer load() throws MailReceiverException ;
+	}
+	
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Constructor
+	 * @param mailMessageBuilder
+	 * @param attachmentStore
+	 * @param processor the processor (must be thread-safe)
+	 */
+	public MailArchiveReader(MailMessageBuilder mailMessageBuilder, AttachmentStore attachmentStore, MailMessageProcessor processor) {
+		super();
+		this.mailMessageBuilder = mailMessageBuilder;
+		this.attachmentStore = attachmentStore;
+		this.processor = processor;
+	}
+
+	/**
+	 * Sets the number of messages parsed and processed in parallel (default = number of processors)
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException("invalid parallelism : " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Processes the messages of a mbox file ( messages separated by "From " lines ) <br>
+	 * The "&gt;From " lines quoted by the mbox format are not unquoted
+	 * @param mboxFile
+	 * @return the number of messages processed successfully
+	 * @throws MailReceiverException
+	 */
+	public int processMbox(String mboxFile) throws MailReceiverException {
+		File file = new File(mboxFile);
+		try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+			List<RawMessage> messages = new ArrayList<>();
+			for ( ByteBuffer message : splitMbox(channel) ) {
+				messages.add(() -> message);
+			}
+			return processAll(messages);
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot read mbox file " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Processes the messages of a maildir directory ( one file per message in "new" and "cur" ) 
+	 * @param maildirDirectory
+	 * @return the number of messages processed successfully
+	 * @throws MailReceiverException
+	 */
+	public int processMaildir(String maildirDirectory) throws MailReceiverException {
+		List<RawMessage> messages = new ArrayList<>();
+		for ( String subDirectory : new String[] { "cur", "new" } ) {
+			File[] files = new File(maildirDirectory, subDirectory).listFiles();
+			if ( files != null ) {
+				for ( File file : files ) {
+					if ( file.isFile() && file.length() > 0 ) {
+						checkMessageSize(file.length(), file.getAbsolutePath());
+						messages.add(() -> load(file, 0, file.length()));
+					}
+				}
+			}
+		}
+		return processAll(messages);
+	}
+
+	/**
+	 * Processes all the durable messages of a mail spool ( see 'MailSpool' ), 
+	 * independently of the checkpoint of the spool consumer
+	 * @param spool
+	 * @return the number of messages processed successfully
+	 * @throws MailReceiverException
+	 */
+	public int processSpool(MailSpool spool) throws MailReceiverException {
+		List<RawMessage> messages = new ArrayList<>();
+		for ( MailSpoolEntry entry : spool.entries() ) {
+			// offsets in long : no limit on the segment size
+			File dataFile = spool.dataFile(entry.getSegment());
+			checkMessageSize(entry.getLength(), dataFile.getAbsolutePath() + " entry " + entry);
+			messages.add(() -> load(dataFile, entry.getOffset(), entry.getLength()));
+		}
+		return processAll(messages);
+	}
+	
+	/**
+	 * Splits the mbox file in messages : the file is scanned by regions and each message is a slice of a region
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	private List<ByteBuffer> splitMbox(FileChannel channel) throws IOException, MailReceiverException {
+		long size = channel.size();
+		// 1) start offset of each "From " line
+		List<Long> fromLines = new ArrayList<>();
+		if ( size >= MBOX_SEPARATOR.length - 1 && startsWithFrom(channel) ) {
+			fromLines.add(0L);
+		}
+		for ( long regionStart = 0 ; regionStart < size ; regionStart += MAX_REGION_SIZE ) {
+			// the region overlaps the next one to find a separator across 2 regions
+			long regionSize = Math.min(size - regionStart, MAX_REGION_SIZE + MBOX_SEPARATOR.length - 1);
+			MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+			int end = (int) Math.min(regionSize, MAX_REGION_SIZE);
+			for ( int i = 0 ; i < end ; i++ ) {
+				if ( region.get(i) == '\n' && matchesSeparator(region, i) ) {
+					fromLines.add(regionStart + i + 1);
+				}
+			}
+		}
+		// 2) messages grouped in mapped regions 
+		List<ByteBuffer> messages = new ArrayList<>(fromLines.size());
+		MappedByteBuffer region = null ;
+		long regionStart = 0 ;
+		for ( int m = 0 ; m < fromLines.size() ; m++ ) {
+			long fromLine = fromLines.get(m);
+			long messageEnd = ( m + 1 < fromLines.size() ) ? fromLines.get(m + 1) : size ;
+			checkMessageSize(messageEnd - fromLine, "mbox at offset " + fromLine);
+			if ( region == null || messageEnd - regionStart > region.capacity() ) {
+				regionStart = fromLine ;
+				region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(size - regionStart, 
+						Math.max(MAX_REGION_SIZE, messageEnd - regionStart)));
+			}
+			// the message starts after the "From " line 
+			int start = (int) ( fromLine - regionStart );
+			while ( start < messageEnd - regionStart && region.get(start) != '\n' ) {
+				start++;
+			}
+			start++;
+			int length = (int) ( messageEnd - regionStart ) - start ;
+			if ( length > 0 ) {
+				messages.add(slice(region, start, length));
+			}
+		}
+		return messages;
+	}
+	
+	private boolean startsWithFrom(FileChannel channel) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(MBOX_SEPARATOR.length - 1);
+		channel.read(head, 0);
+		for ( int i = 1 ; i < MBOX_SEPARATOR.length ; i++ ) {
+			if ( head.get(i - 1) != MBOX_SEPARATOR[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean matchesSeparator(ByteBuffer buffer, int newLine) {
+		if ( newLine + MBOX_SEPARATOR.length > buffer.limit() ) {
+			return false;
+		}
+		for ( int i = 1 ; i < MBOX_SEPARATOR.length ; i++ ) {
+			if ( buffer.get(newLine + i) != MBOX_SEPARATOR[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Loads a message stored in a file : read in memory if small, memory-mapped otherwise <br>
+	 * (a mapping per message only for the large messages : the number of mappings is limited by the OS) 
+	 * @param file
+	 * @param position
+	 * @param size
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	private ByteBuffer load(File file, long position, long size) throws MailReceiverException {
+		checkMessageSize(size, file.getAbsolutePath());
+		try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+			if ( size >= MAP_THRESHOLD ) {
+				// the mapping remains valid after the channel is closed
+				return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while ( buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0 ) {
+				// read until the end of the message
+			}
+			buffer.flip();
+			return buffer;
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot read file " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Rejects a message that cannot be held in a single buffer (2 GB or more) 
+	 * @param size
+	 * @param location
+	 * @throws MailReceiverException
+	 */
+	private void checkMessageSize(long size, String location) throws MailReceiverException {
+		if ( size >= Integer.MAX_VALUE ) {
+			throw new MailReceiverException("Message too large (" + size + " bytes) in " + location);
+		}
+	}
+	
+	private ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice();
+	}
+	
+	private int processAll(List<RawMessage> messages) throws MailReceiverException {
+		if ( messages.isEmpty() ) {
+			return 0;
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.invoke(new ProcessTask(messages, 0, messages.size()));
+		} catch (ProcessingFailure e) {
+			throw e.getMailReceiverException();
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private boolean process(ByteBuffer rawMessage) throws MailReceiverException {
+		MailMessage mailMessage ;
+		try {
+			MimeMessage message = new MimeMessage(session, new ByteBufferInputStream(rawMessage));
+			mailMessage = mailMessageBuilder.buildMailMessage(message, attachmentStore);
+		} catch (MessagingException e) {
+			throw new MailReceiverException("Cannot parse archived message", e);
+		} catch (RuntimeException e) {
+			// malformed message ( e.g. invalid header value ) : handled as any parsing failure
+			throw new MailReceiverException("Cannot parse archived message (" + e + ")", e);
+		}
+		try {
+			return processor.processMessage(mailMessage);
+		} catch (Exception e) {
+			throw new MailReceiverException("Message processing error", e);
+		}
+	}
+	
+	/**
+	 * Fork-join task processing a range of messages 
+	 */
+	private class ProcessTask extends RecursiveTask<Integer> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final transient List<RawMessage> messages ;
+		private final int from ;
+		private final int to ;
+		
+		ProcessTask(List<RawMessage> messages, int from, int to) {
+			this.messages = messages;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			if ( to - from <= SPLIT_THRESHOLD ) {
+				int processed = 0 ;
+				for ( int i = from ; i < to ; i++ ) {
+					try {
+						// loaded in the task : released once processed
+						if ( process(messages.get(i).load()) ) {
+							processed++;
+						}
+					} catch (MailReceiverException e) {
+						throw new ProcessingFailure(e);
+					}
+				}
+				return processed;
+			}
+			int middle = ( from + to ) >>> 1 ;
+			ProcessTask left = new ProcessTask(messages, from, middle);
+			left.fork();
+			int right = new ProcessTask(messages, middle, to).compute();
+			return left.join() + right ;
+		}
+	}
+	
+	/**
+	 * Unchecked wrapper used to propagate an error out of the fork-join tasks
+	 */
+	private static class ProcessingFailure extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+
+		ProcessingFailure(MailReceiverException cause) {
+			super(cause);
+		}
+		
+		MailReceiverException getMailReceiverException() {
+			return (MailReceiverException) getCause();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.demo.mail.receiver.attachment;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+/**
+ * Files and folders naming for the attachments stored on disk 
+ */
+class AttachmentFiles {
+
+	private AttachmentFiles() {
+	}
+	
+	/**
+	 * Returns the folder for the given message (created if not exist)
+	 * @param directory
+	 * @param messageId
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	protected static File messageFolder(File directory, String messageId) throws MailReceiverException {
+		// message folder without invalid chars in folder name
+		String messageFolder = messageId.replaceAll("[<>\\\\/:*?\"|\\p{Cntrl}]", "-");
+		if ( messageFolder.isEmpty() || messageFolder.startsWith(".") ) {
+			// no "." or ".." (current or parent folder) and no hidden folder ( e.g. ".blobs" ) 
+			messageFolder = "_" + messageFolder ;
+		}
+		File folder = new File(directory, messageFolder);
+		mkdirs(folder);
+		return folder;
+	}
+	
+	protected static void mkdirs(File folder) throws MailReceiverException {
+		if ( ! folder.exists() ) {
+			boolean created = folder.mkdirs();
+			if (!created && !folder.exists()) {
+				throw new MailReceiverException("Cannot create folder " + folder.getAbsolutePath() );
+			}
+		}
+	}
+
+	/**
+	 * Returns a file name usable in a folder (no path, no invalid chars)
+	 * @param fileName the original file name (can be null)
+	 * @return
+	 */
+	protected static String safeFileName(String fileName) {
+		if ( fileName == null ) {
+			return "attachment";
+		}
+		// only the last path element is kept ( "../../x" => "x" )
+		String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+		name = name.replaceAll("[<>:*?\"|\\p{Cntrl}]", "-").trim();
+		if ( name.isEmpty() || name.equals(".") || name.equals("..") ) {
+			return "attachment";
+		}
+		return name;
+	}
+	
+	/**
+	 * Returns the candidate file names in the folder : "name.ext", "name (2).ext", "name (3).ext", etc
+	 * @param folder
+	 * @param fileName
+	 * @param n
+	 * @return
+	 */
+	protected static File candidateFile(File folder, String fileName, int n) {
+		if ( n <= 1 ) {
+			return new File(folder, fileName);
+		}
+		int dot = fileName.lastIndexOf('.');
+		String base = dot > 0 ? fileName.substring(0, dot) : fileName ;
+		String extension = dot > 0 ? fileName.substring(dot) : "" ;
+		return new File(folder, base + " (" + n + ")" + extension);
+	}
+
+	/**
+	 * Creates a new empty file in the folder, with a new name if the file name is already used 
+	 * (atomic : the file returned cannot be used by another thread)
+	 * @param folder
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	protected static File createUniqueFile(File folder, String fileName) throws IOException {
+		for ( int n = 1 ; ; n++ ) {
+			File file = candidateFile(folder, fileName, n);
+			if ( file.createNewFile() ) {
+				return file;
+			}
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package org.demo.mail.receiver.attachment;
+
+import java.io.InputStream;
+
+import org.demo.mail.receiver.MailAttachment;
+import org.demo.mail.receiver.MailReceiverException;
+
+public interface AttachmentStore {
+
+	/**
+	 * Stores an attachment of the given message 
+	 * @param messageId the id of the message containing the attachment
+	 * @param fileName the attachment file name (as defined in the message, can be null)
+	 * @param contentType the attachment content type
+	 * @param inputStream the decoded attachment content (read until the end and closed by the store)
+	 * @return a handle on the attachment stored
+	 * @throws MailReceiverException
+	 */
+	MailAttachment store(String messageId, String fileName, String contentType, InputStream inputStream) throws MailReceiverException;
+	
+}
@@ -0,0 +1,67 @@
+package org.demo.mail.receiver.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a decoded attachment stream to a file through a 'FileChannel' <br>
+ * The large buffers are reused through a small bounded pool (not per thread : the worker threads 
+ * can be virtual threads, created for each message) and the attachment is never held in memory 
+ * as a whole (only one buffer at a time)
+ */
+class AttachmentWriter {
+
+	private static final int BUFFER_SIZE = 256 * 1024 ;
+	
+	// maximum number of buffers kept for reuse (a buffer is allocated if the pool is empty)
+	private static final int POOL_SIZE = 16 ;
+	
+	private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(POOL_SIZE);
+	
+	private AttachmentWriter() {
+	}
+	
+	/**
+	 * Copies the given stream in the given file (the file is created or replaced)
+	 * @param inputStream the decoded attachment stream (closed at the end)
+	 * @param file
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	protected static long write(InputStream inputStream, File file) throws IOException {
+		ByteBuffer buffer = BUFFERS.poll();
+		if ( buffer == null ) {
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		try {
+			return write(inputStream, file, buffer);
+		} finally {
+			// given back to the pool (dropped if the pool is full)
+			BUFFERS.offer(buffer);
+		}
+	}
+	
+	private static long write(InputStream inputStream, File file, ByteBuffer buffer) throws IOException {
+		byte[] array = buffer.array();
+		long total = 0 ;
+		try ( InputStream in = inputStream ; 
+			  FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, 
+					  StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) ) {
+			int n ;
+			while ( ( n = in.read(array, 0, array.length) ) >= 0 ) {
+				buffer.clear();
+				buffer.limit(n);
+				while ( buffer.hasRemaining() ) {
+					total += channel.write(buffer);
+				}
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,129 @@
+package org.demo.mail.receiver.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import org.demo.mail.receiver.MailAttachment;
+import org.demo.mail.receiver.MailReceiverException;
+
+/**
+ * Content-addressed attachment store (deduplication) : <br>
+ * - the content is hashed (SHA-256) while it is written in a temporary file <br>
+ * - each distinct content is stored once : "directory/.blobs/xx/digest" <br>
+ * - each message gets a hard link to the content : "directory/messageId/fileName" 
+ *   (or a direct reference to the blob if the file system does not support hard links, 
+ *   or a copy if the blob cannot be linked : too many links, other file system) <br>
+ * The same attachment received by N messages uses the disk space of 1 file. 
+ */
+public class ContentAddressedAttachmentStore implements AttachmentStore {
+
+	private static final String BLOBS_FOLDER = ".blobs" ;
+	private static final String DIGEST_ALGORITHM = "SHA-256" ;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private final File directory ;
+	private final File blobsDirectory ;
+	
+	private volatile boolean hardLinksSupported = true ;
+	
+	public ContentAddressedAttachmentStore(String directory) {
+		super();
+		if ( directory == null ) {
+			throw new IllegalArgumentException("directory is null");
+		}
+		this.directory = new File(directory);
+		this.blobsDirectory = new File(this.directory, BLOBS_FOLDER);
+	}
+
+	@Override
+	public MailAttachment store(String messageId, String fileName, String contentType, InputStream inputStream) throws MailReceiverException {
+		AttachmentFiles.mkdirs(blobsDirectory);
+		MessageDigest messageDigest = newMessageDigest();
+		File tmpFile = new File(blobsDirectory, "tmp-" + UUID.randomUUID());
+		try {
+			// 1) write the content in a temporary file and compute its digest at the same time 
+			long size = AttachmentWriter.write(new DigestInputStream(inputStream, messageDigest), tmpFile);
+			String digest = toHex(messageDigest.digest());
+			// 2) keep the content only if not already stored 
+			File blob = storeBlob(tmpFile, digest);
+			// 3) reference the content in the message folder 
+			File file = linkBlob(blob, AttachmentFiles.messageFolder(directory, messageId), AttachmentFiles.safeFileName(fileName));
+			return new MailAttachment(fileName, contentType, size, digest, file);
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot store attachment '" + fileName + "' for message " + messageId, e);
+		} finally {
+			tmpFile.delete(); // if still there
+		}
+	}
+	
+	private File storeBlob(File tmpFile, String digest) throws IOException, MailReceiverException {
+		File blobFolder = new File(blobsDirectory, digest.substring(0, 2));
+		AttachmentFiles.mkdirs(blobFolder);
+		File blob = new File(blobFolder, digest);
+		if ( ! blob.exists() ) {
+			try {
+				Files.move(tmpFile.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException e) {
+				// stored by another thread in the meantime 
+			}
+		}
+		return blob;
+	}
+	
+	private File linkBlob(File blob, File messageFolder, String fileName) throws IOException {
+		if ( hardLinksSupported ) {
+			for ( int n = 1 ; ; n++ ) {
+				File link = AttachmentFiles.candidateFile(messageFolder, fileName, n);
+				try {
+					createLinkOrCopy(blob, link);
+					return link;
+				} catch (FileAlreadyExistsException e) {
+					// same file name already used in this message => next candidate
+				} catch (UnsupportedOperationException e) {
+					hardLinksSupported = false ;
+					break;
+				}
+			}
+		}
+		// no hard link : the blob itself is the attachment file
+		return blob;
+	}
+	
+	private void createLinkOrCopy(File blob, File link) throws IOException {
+		try {
+			Files.createLink(link.toPath(), blob.toPath());
+		} catch (FileAlreadyExistsException e) {
+			throw e;
+		} catch (FileSystemException e) {
+			// too many links to the blob (EMLINK) or message folder on another file system (EXDEV) : 
+			// the content is copied (the deduplication is lost for this file only)
+			Files.copy(blob.toPath(), link.toPath());
+		}
+	}
+
+	private MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(DIGEST_ALGORITHM + " not available", e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for ( int i = 0 ; i < bytes.length ; i++ ) {
+			chars[i * 2]     = HEX[(bytes[i] >> 4) & 0x0F];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,37 @@
+package org.demo.mail.receiver.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.demo.mail.receiver.MailAttachment;
+import org.demo.mail.receiver.MailReceiverException;
+
+/**
+ * Attachment store writing each attachment in a folder per message : "directory/messageId/fileName" <br>
+ * (no deduplication, an existing file is never overwritten : "fileName (2)" is used instead)
+ */
+public class DirectoryAttachmentStore implements AttachmentStore {
+
+	private final File directory ;
+	
+	public DirectoryAttachmentStore(String directory) {
+		super();
+		if ( directory == null ) {
+			throw new IllegalArgumentException("directory is null");
+		}
+		this.directory = new File(directory);
+	}
+
+	@Override
+	public MailAttachment store(String messageId, String fileName, String contentType, InputStream inputStream) throws MailReceiverException {
+		File folder = AttachmentFiles.messageFolder(directory, messageId);
+		try {
+			File file = AttachmentFiles.createUniqueFile(folder, AttachmentFiles.safeFileName(fileName));
+			long size = AttachmentWriter.write(inputStream, file);
+			return new MailAttachment(fileName, contentType, size, null, file);
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot write attachment '" + fileName + "' in folder " + folder.getAbsolutePath(), e);
+		}
+	}
+}
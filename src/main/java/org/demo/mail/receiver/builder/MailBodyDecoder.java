@@ -0,0 +1,160 @@
+package org.demo.mail.receiver.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.demo.mail.receiver.MailBody;
+import org.demo.mail.receiver.MailBodyOptions;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
+
+/**
+ * Streaming decoder of the text parts : the part is decoded by blocks of characters 
+ * and at most 'maxBodyLength' characters are kept in memory ( see 'MailBodyOptions' )
+ */
+class MailBodyDecoder {
+
+	// small buffer allocated for each part (not per thread : the workers can be virtual threads)
+	private static final int BUFFER_SIZE = 8 * 1024 ;
+	
+	private final MailBodyOptions options ;
+	
+	MailBodyDecoder(MailBodyOptions options) {
+		super();
+		this.options = options;
+	}
+
+	/**
+	 * Decodes the given text part 
+	 * @param part
+	 * @return
+	 * @throws IOException
+	 * @throws MessagingException
+	 */
+	MailBody decode(Part part) throws IOException, MessagingException {
+		Charset charset = getCharset(part.getContentType());
+		int maxLength = ( options.getMaxBodyLength() > 0 ) ? options.getMaxBodyLength() : Integer.MAX_VALUE ;
+		char[] buffer = new char[BUFFER_SIZE];
+		try ( Reader reader = new InputStreamReader(part.getInputStream(), charset) ) {
+			// 1) text kept in memory (up to the max length)
+			StringBuilder sb = options.isUtf8Storage() ? null : new StringBuilder();
+			ByteArrayOutputStream utf8 = options.isUtf8Storage() ? new ByteArrayOutputStream() : null ;
+			Writer memory = options.isUtf8Storage() ? new OutputStreamWriter(utf8, StandardCharsets.UTF_8) : null ;
+			int length = 0 ;
+			boolean truncated = false ;
+			File file = null ;
+			int n ;
+			while ( ( n = reader.read(buffer, 0, buffer.length) ) > 0 ) {
+				if ( n > maxLength - length ) {
+					// max length reached : the end of the text is not kept in memory
+					int keep = maxLength - length ;
+					if ( keep > 0 && Character.isHighSurrogate(buffer[keep - 1]) ) {
+						keep-- ; // a surrogate pair is not cut
+					}
+					append(buffer, 0, keep, sb, memory);
+					truncated = true ;
+					if ( options.getSpillDirectory() != null ) {
+						// 2) whole text written in a file : text kept in memory + end of the part
+						if ( memory != null ) {
+							memory.flush();
+						}
+						file = spill(reader, sb, utf8, buffer, keep, n);
+					}
+					break;
+				}
+				append(buffer, 0, n, sb, memory);
+				length += n ;
+			}
+			if ( truncated ) {
+				append(options.getTruncationMarker(), sb, memory);
+			}
+			if ( memory != null ) {
+				memory.close();
+				return MailBody.ofUtf8(utf8.toByteArray(), truncated, file);
+			}
+			return MailBody.of(sb.toString(), truncated, file);
+		}
+	}
+	
+	private void append(char[] buffer, int offset, int n, StringBuilder sb, Writer memory) throws IOException {
+		if ( memory != null ) {
+			memory.write(buffer, offset, n);
+		}
+		else {
+			sb.append(buffer, offset, n);
+		}
+	}
+	
+	private void append(String s, StringBuilder sb, Writer memory) throws IOException {
+		if ( memory != null ) {
+			memory.write(s);
+		}
+		else {
+			sb.append(s);
+		}
+	}
+	
+	private File spill(Reader reader, StringBuilder sb, ByteArrayOutputStream utf8, 
+			char[] buffer, int offset, int end) throws IOException {
+		File directory = options.getSpillDirectory();
+		if ( ! directory.exists() ) {
+			directory.mkdirs();
+		}
+		File file = File.createTempFile("body-", ".txt", directory);
+		try ( OutputStream out = new FileOutputStream(file) ) {
+			if ( utf8 != null ) {
+				utf8.writeTo(out);
+			}
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			if ( sb != null ) {
+				writer.append(sb);
+			}
+			writer.write(buffer, offset, end - offset);
+			int n ;
+			while ( ( n = reader.read(buffer) ) > 0 ) {
+				writer.write(buffer, 0, n);
+			}
+			writer.flush();
+		}
+		return file;
+	}
+	
+	/**
+	 * Returns the charset of the given content type ( "us-ascii" if not defined, UTF-8 if unknown )
+	 * @param contentType
+	 * @return
+	 */
+	private Charset getCharset(String contentType) {
+		String charsetName = null ;
+		if ( contentType != null ) {
+			try {
+				charsetName = new ContentType(contentType).getParameter("charset");
+			} catch (ParseException e) {
+				// invalid content type : default charset
+			}
+		}
+		if ( charsetName == null ) {
+			charsetName = "us-ascii" ;
+		}
+		try {
+			return Charset.forName(MimeUtility.javaCharset(charsetName));
+		} catch (IllegalArgumentException e) {
+			// unknown charset : decoded as UTF-8
+			return StandardCharsets.UTF_8;
+		}
+	}
+}
@@ -1,13 +1,19 @@
 package org.demo.mail.receiver.builder;
 
-import java.time.LocalDate;
-import java.time.ZoneId;
+import java.time.Instant;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.UUID;
 
+import org.demo.mail.receiver.AddressInterner;
+import org.demo.mail.receiver.MailAddressList;
+import org.demo.mail.receiver.MailBodyOptions;
 import org.demo.mail.receiver.MailMessage;
 import org.demo.mail.receiver.MailReceiverException;
+import org.demo.mail.receiver.attachment.AttachmentStore;
+import org.demo.mail.receiver.attachment.ContentAddressedAttachmentStore;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
 
 import jakarta.mail.Address;
 import jakarta.mail.Message;
@@ -17,16 +23,68 @@ import jakarta.mail.internet.MimeMessage;
 
 public class MailMessageBuilder {
 
+	private MailReceiverMetrics metrics = MailReceiverMetrics.NONE ;
+	
+	private AddressInterner addressInterner = AddressInterner.getDefault();
+	
+	private MailBodyOptions bodyOptions = MailBodyOptions.defaults();
+	
+	/**
+	 * Sets the metrics used to measure the content parsing 
+	 * @param metrics
+	 */
+	public void setMetrics(MailReceiverMetrics metrics) {
+		this.metrics = ( metrics != null ) ? metrics : MailReceiverMetrics.NONE ;
+	}
+
+	/**
+	 * Sets the interner used to deduplicate the address strings 
+	 * @param addressInterner
+	 */
+	public void setAddressInterner(AddressInterner addressInterner) {
+		this.addressInterner = addressInterner;
+	}
+
+	/**
+	 * Sets the options used to decode the bodies (max length, storage, spill directory) 
+	 * @param bodyOptions
+	 */
+	public void setBodyOptions(MailBodyOptions bodyOptions) {
+		this.bodyOptions = ( bodyOptions != null ) ? bodyOptions : MailBodyOptions.defaults() ;
+	}
+
 	/**
 	 * Builds a MailMessage from the given Message
 	 * @param message
 	 * @return
 	 */
 	public MailMessage buildMailMessage(Message message, String attachementsDirectory) throws MailReceiverException {
+		return buildMailMessage(message, new ContentAddressedAttachmentStore(attachementsDirectory));
+	}
+
+	/**
+	 * Builds a MailMessage from the given Message
+	 * @param message
+	 * @param attachmentStore the store where to save the attachments
+	 * @return
+	 */
+	public MailMessage buildMailMessage(Message message, AttachmentStore attachmentStore) throws MailReceiverException {
+		MailMessage messageReceived = buildMailMessageHeader(message);
+		parseMailMessageContent(message, messageReceived, attachmentStore);
+		return messageReceived;
+	}
+
+	/**
+	 * Builds a MailMessage from the given Message using only the header fields <br>
+	 * (the message content is not retrieved : no body, no attachments)
+	 * @param message
+	 * @return
+	 */
+	public MailMessage buildMailMessageHeader(Message message) {
 
 		String messageId = getMessageId(message);
 
-		LocalDate sentDate = getSentDate(message);
+		Instant sentDate = getSentDate(message);
 		String subject = getSubject(message);
 
 		// A Message object's message number is the relative position of this Message in its Folder.
@@ -41,34 +99,67 @@ public class MailMessageBuilder {
 		MailMessage messageReceived = new MailMessage(from, sentDate, subject, messageId);
 
 		messageReceived.setSender(getSender(message));
+		messageReceived.setReceivedInstant(getReceivedDate(message));
 
-		// Recipients
-		messageReceived.setTo( addressesAsString(getRecipients(message,RecipientType.TO)  ) );
-		messageReceived.setCc( addressesAsString(getRecipients(message,RecipientType.CC)  ) );
-		messageReceived.setBcc(addressesAsString(getRecipients(message,RecipientType.BCC) ) );
+		// Recipients (raw headers parsed on first access)
+		messageReceived.setTo( getRecipients(message, RecipientType.TO) );
+		messageReceived.setCc( getRecipients(message, RecipientType.CC) );
+		messageReceived.setBcc(getRecipients(message, RecipientType.BCC) );
 
 		messageReceived.setSize(getSize(message));
 		
 		String contentType = getContentType(message);
 		messageReceived.setContentType(contentType);
 		
+		return messageReceived;
+	}
+
+	/**
+	 * Retrieves and parses the content of the given Message and stores it in the given MailMessage
+	 * @param message
+	 * @param messageReceived MailMessage built with 'buildMailMessageHeader'
+	 * @param attachmentStore
+	 * @throws MailReceiverException
+	 */
+	public void parseMailMessageContent(Message message, MailMessage messageReceived, AttachmentStore attachmentStore) throws MailReceiverException {
 		// Parse message content : body (text and html), attachments, etc
-		MailMessageContentParser parser = new MailMessageContentParser(attachementsDirectory);
-		MailMessageContent content = parser.parseMessageContent(message, messageId) ;
-		messageReceived.setBody(content.getBody() );
-		messageReceived.setBodyHtml(content.getBodyHtml() );
+		long start = metrics.startTimer();
+		MailMessageContentParser parser = new MailMessageContentParser(attachmentStore, metrics, bodyOptions);
+		MailMessageContent content ;
+		try {
+			content = parser.parseMessageContent(message, getContentKey(messageReceived)) ;
+		} catch (MailReceiverException e) {
+			metrics.increment(Counter.FAILURES, 1);
+			throw e;
+		} finally {
+			metrics.stopTimer(Phase.PARSE, start);
+		}
+		messageReceived.setBodyContent(content.getBody() );
+		messageReceived.setBodyHtmlContent(content.getBodyHtml() );
 		messageReceived.setAttachments(content.getAttachments());
 		
 		// messageReceived.setBody(getBody(message));
-		
-		return messageReceived;
+	}
+
+	/**
+	 * Returns the key identifying the content of the message in the attachment store : the Message-ID 
+	 * or a generated key if the message has no Message-ID (optional header field, RFC 5322 3.6.4) 
+	 * @param messageReceived
+	 * @return
+	 */
+	private String getContentKey(MailMessage messageReceived) {
+		String messageId = messageReceived.getMessageId();
+		if ( messageId == null || messageId.trim().isEmpty() ) {
+			return "no-message-id-" + UUID.randomUUID();
+		}
+		return messageId;
 	}
 
 	private String getFrom(Message message) {
 		Address[] addresses;
 		try {
 			addresses = message.getFrom();
-			if (addresses.length >= 1) {
+			if (addresses != null && addresses.length >= 1) {
 				// only the first address is used
 				return addressAsString(addresses[0]);
 			} else {
@@ -79,11 +170,17 @@ public class MailMessageBuilder {
 		}
 	}
 
-	private Address[] getRecipients(Message message, RecipientType recipientType) {
+	private MailAddressList getRecipients(Message message, RecipientType recipientType) {
 		try {
-			return message.getRecipients(recipientType);
+			// same header as 'MimeMessage.getRecipients' : "To", "Cc" or "Bcc"
+			String[] values = message.getHeader(recipientType.toString());
+			String header = null ;
+			if ( values != null ) {
+				header = ( values.length == 1 ) ? values[0] : String.join(",", values);
+			}
+			return MailAddressList.ofHeader(header, addressInterner);
 		} catch (MessagingException e1) {
-			return null;
+			return MailAddressList.ofHeader(null, addressInterner);
 		}
 	}
 
@@ -95,15 +192,28 @@ public class MailMessageBuilder {
 		}
 	}
 	
-	private LocalDate getSentDate(Message message) {
+	private Instant getSentDate(Message message) {
 		try {
-			Date date = message.getSentDate();
-			if ( date != null ) {
-				return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-			}
-			else {
-				return null;
+			String[] header = message.getHeader("Date");
+			if ( header != null ) {
+				Instant instant = Rfc5322DateParser.parse(header[0]);
+				if ( instant != null ) {
+					return instant;
+				}
 			}
+			// not parsed : fallback to the lenient JavaMail parser
+			Date date = message.getSentDate();
+			return ( date != null ) ? date.toInstant() : null ;
+		} catch (MessagingException e) {
+			return null;
+		}
+	}
+
+	private Instant getReceivedDate(Message message) {
+		try {
+			// the first "Received" header field is the most recent (added by the final server)
+			String[] header = message.getHeader("Received");
+			return ( header != null ) ? Rfc5322DateParser.parseReceived(header[0]) : null ;
 		} catch (MessagingException e) {
 			return null;
 		}
@@ -259,21 +369,9 @@ public class MailMessageBuilder {
 //		}
 //	}
 	
-	private List<String> addressesAsString(Address[] addresses) {
-		List<String> list = new LinkedList<>();
-		if (addresses != null) {
-			for ( Address address : addresses ) {
-				if ( address != null ) {
-					list.add(addressAsString(address)); 
-				}
-			}
-		}
-		return list ;
-	}
-	
 	private String addressAsString(Address address) {
 		if (address != null) {
-			return address.toString();
+			return addressInterner.intern(address.toString());
 		} else {
 			return null;
 		}
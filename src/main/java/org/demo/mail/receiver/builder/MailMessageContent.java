@@ -1,18 +1,20 @@
 package org.demo.mail.receiver.builder;
 
-import java.io.File;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.demo.mail.receiver.MailAttachment;
+import org.demo.mail.receiver.MailBody;
+
 public class MailMessageContent {
 
 	private final String messageId ;
 	
-	private String body ;
+	private MailBody body ;
 
-	private String bodyHtml ;
+	private MailBody bodyHtml ;
 	
-	private List<File> attachments ;
+	private List<MailAttachment> attachments ;
 
 	
 	public MailMessageContent(String messageId) {
@@ -23,38 +25,41 @@ public class MailMessageContent {
 		this.messageId = messageId ;
 		this.body = null;
 		this.bodyHtml = null;
-		this.attachments = new LinkedList<>();
+		this.attachments = new ArrayList<>();
 	}
 
 	public String getMessageId() {
 		return messageId;
 	}
 
-	public String getBody() {
+	public MailBody getBody() {
 		return body;
 	}
-	public void setBody(String body) {
+	public void setBody(MailBody body) {
 		this.body = body;
 	}
 	public boolean hasBody() {
 		return body != null ;
 	}
 
-	public String getBodyHtml() {
+	public MailBody getBodyHtml() {
 		return bodyHtml;
 	}
-	public void setBodyHtml(String bodyHtml) {
+	public void setBodyHtml(MailBody bodyHtml) {
 		this.bodyHtml = bodyHtml;
 	}
+	public boolean hasBodyHtml() {
+		return bodyHtml != null ;
+	}
 
-	public List<File> getAttachments() {
+	public List<MailAttachment> getAttachments() {
 		return attachments;
 	}
-//	public void setAttachments(List<File> attachments) {
+//	public void setAttachments(List<MailAttachment> attachments) {
 //		this.attachments = attachments;
 //	}
-	public void addAttachment(File file) {
-		this.attachments.add(file);
+	public void addAttachment(MailAttachment attachment) {
+		this.attachments.add(attachment);
 	}
 	
 }
@@ -1,264 +1,221 @@
 package org.demo.mail.receiver.builder;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.demo.mail.receiver.MailAttachment;
+import org.demo.mail.receiver.MailBody;
+import org.demo.mail.receiver.MailBodyOptions;
 import org.demo.mail.receiver.MailReceiverException;
+import org.demo.mail.receiver.attachment.AttachmentStore;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Counter;
+import org.demo.mail.receiver.metrics.MailReceiverMetrics.Phase;
 
-import jakarta.mail.BodyPart;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
 import jakarta.mail.Part;
-import jakarta.mail.internet.MimeBodyPart;
-import jakarta.mail.internet.MimeMultipart;
 
 public class MailMessageContentParser {
 
+	private static final Logger LOGGER = Logger.getLogger(MailMessageContentParser.class.getName());
+	
+	/**
+	 * Returns true if the debug logs are enabled <br>
+	 * (must be checked before building a log message : no allocation when the logs are disabled)
+	 * @return
+	 */
+	private static boolean isLogEnabled() {
+		return LOGGER.isLoggable(Level.FINE);
+	}
+	
 	private static void log(String s) {
-		System.out.println("[LOG] " + s);
+		LOGGER.fine(s);
 	}
 	
-	private final String attachementsDirectory ;
+	private final AttachmentStore attachmentStore ;
+	
+	private final MailReceiverMetrics metrics ;
+	
+	private final MailBodyDecoder bodyDecoder ;
 	
 	private static final String TEXT_PLAIN            = "text/plain";
 	private static final String TEXT_HTML             = "text/html";
+	private static final String MULTIPART             = "multipart/";
 	private static final String MULTIPART_ALTERNATIVE = "multipart/alternative";
 	private static final String MULTIPART_RELATED     = "multipart/related";
-	private static final String MULTIPART_MIXED       = "multipart/mixed";
+	private static final String IMAGE                 = "image/";
 	
-	public MailMessageContentParser(String attachementsDirectory) {
+	// nesting limit : deeper parts are kept as attachments
+	private static final int MAX_DEPTH = 32 ;
+	
+	public MailMessageContentParser(AttachmentStore attachmentStore) {
+		this(attachmentStore, MailReceiverMetrics.NONE);
+	}
+
+	public MailMessageContentParser(AttachmentStore attachmentStore, MailReceiverMetrics metrics) {
+		this(attachmentStore, metrics, MailBodyOptions.defaults());
+	}
+
+	public MailMessageContentParser(AttachmentStore attachmentStore, MailReceiverMetrics metrics, MailBodyOptions bodyOptions) {
 		super();
-		if ( attachementsDirectory == null ) {
-			throw new IllegalArgumentException("attachementsDirectory is null");
+		if ( attachmentStore == null ) {
+			throw new IllegalArgumentException("attachmentStore is null");
+		}		
+		if ( metrics == null ) {
+			throw new IllegalArgumentException("metrics is null");
+		}		
+		this.attachmentStore = attachmentStore;
+		if ( bodyOptions == null ) {
+			throw new IllegalArgumentException("bodyOptions is null");
 		}		
-		this.attachementsDirectory = attachementsDirectory;
+		this.metrics = metrics;
+		this.bodyDecoder = new MailBodyDecoder(bodyOptions);
 	}
 
 	protected MailMessageContent parseMessageContent(Message message, String messageId) throws MailReceiverException {
 		try {
-			return parse(message, messageId) ;
+			MailMessageContent mailMessageContent = new MailMessageContent(messageId);
+			visitPart(message, null, 0, mailMessageContent);
+			return mailMessageContent ;
 		} catch (IOException | MessagingException e) {
 			throw new MailReceiverException("Cannot parse message content" , e);
+		} catch (RuntimeException e) {
+			// malformed message ( e.g. invalid header value ) : handled as any parsing failure
+			throw new MailReceiverException("Cannot parse message content (" + e + ")", e);
 		}
 	}
 	
-	private MailMessageContent parse(Message message, String messageId) throws IOException, MessagingException, MailReceiverException {
-		log ( "message content-type = " + message.getContentType() );
-		MailMessageContent mailMessageContent = new MailMessageContent(messageId);
-		Object contentObject = message.getContent();
-		log( "content class : " + contentObject.getClass().getCanonicalName() );
-		if ( message.isMimeType(TEXT_PLAIN) ) {
-			// Basic text message : just basic text body (no html, no attachments) 
-			mailMessageContent.setBody((String) contentObject);
-		} else if ( message.isMimeType(MULTIPART_ALTERNATIVE) ) {
-			// HTML message without images (no attachments) 
-			parseMultipartAlternative(getMultipart(message.getContent()), mailMessageContent);
-		} else if ( message.isMimeType(MULTIPART_RELATED ) ) {
-			// HTML message with images (no attachments) 
-			parseMultipartRelated(getMultipart(message.getContent()), mailMessageContent);
-		} else if ( message.isMimeType(MULTIPART_MIXED) ) {
-			// message with attachments  
-			parseMultipartMixed(getMultipart(message.getContent()), mailMessageContent);
-		} else {
-			throw new MailReceiverException("Unknown message content. class = " + contentObject.getClass().getCanonicalName());
-		}
-		return mailMessageContent;
-	}
-	
-	private MimeMultipart getMultipart(Object content) throws IOException, MessagingException, MailReceiverException {
-    	if ( content instanceof MimeMultipart ) {
-    		return (MimeMultipart) content;
-    	} else {
-			throw new MailReceiverException("Cannot convert to MimeMultipart : Unexpected class " + content.getClass().getName() );
-    	}		
-	}
-
 	/**
-	 * Parsing for "multipart/mixed", expected content : <br>
-	 * - the message : multipart/related or multipart/alternative or text/plain <br>
-	 * - attachments : 1..N files  <br>
-	 * @param multipart
+	 * Visits the given part and its sub-parts (single pass over the MIME tree) <br>
+	 * Each part is decoded at most once and any shape is accepted : <br>
+	 * - the first 'text/plain' and 'text/html' parts not declared as attachment are the message body <br>
+	 * - the images of a 'multipart/related' are resources embedded in the html body (ignored) <br>
+	 * - any other part ( unknown type, 'message/rfc822', invalid multipart, etc ) is an attachment <br>
+	 * @param part
+	 * @param parentType base type of the parent multipart (or null for the message itself)
+	 * @param depth
 	 * @param mailMessageContent
 	 * @throws IOException
 	 * @throws MessagingException
 	 * @throws MailReceiverException
 	 */
-	private void parseMultipartMixed(MimeMultipart multipart, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
-		log("parseMultipartMixed..."  );
-		String contentType = multipart.getContentType();
-		if ( contentType.startsWith(MULTIPART_MIXED)) {
-			// 
-			for (int i = 0; i < multipart.getCount(); i++) {
-			    BodyPart bodyPart = multipart.getBodyPart(i);
-				log("parseMultipartMixed : part #" + i + " - content type : " + bodyPart.getContentType() );
-			    if ( bodyPart.isMimeType(MULTIPART_RELATED)) {
-			    	// Message body (text + html with images)
-			    	parseMultipartRelated(getMultipart(bodyPart.getContent()), mailMessageContent);
-			    }
-			    else if ( bodyPart.isMimeType(MULTIPART_ALTERNATIVE)) {
-			    	// Message body (text + html)
-			    	parseMultipartAlternative(getMultipart(bodyPart.getContent()), mailMessageContent);
-			    }
-			    else if ( bodyPart.isMimeType(TEXT_PLAIN)) {
-			    	if ( mailMessageContent.hasBody() ) { 
-			    		// message body already set => attachment
-			    		saveAttachment(bodyPart, mailMessageContent); 
-			    	}
-			    	else {
-			    		// message body not yet set => use this part as message body
-			    		mailMessageContent.setBody((String)bodyPart.getContent());
-			    	}
-			    }
-			    else {
-					log("parseMultipartMixed : image ");
-					saveAttachment(bodyPart, mailMessageContent); 
-			    }
+	private void visitPart(Part part, String parentType, int depth, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
+		String contentType = part.getContentType();
+		String type = baseType(contentType);
+		metrics.countPart(type);
+		if ( isLogEnabled() ) {
+			log("part depth " + depth + " - content type : " + contentType );
+		}
+		if ( type.startsWith(MULTIPART) && depth < MAX_DEPTH ) {
+			Multipart multipart = getMultipart(part);
+			if ( multipart != null ) {
+				int count = multipart.getCount();
+				for (int i = 0; i < count; i++) {
+					visitPart(multipart.getBodyPart(i), type, depth + 1, mailMessageContent);
+				}
+				return;
 			}
+			// not a valid multipart => attachment
 		}
-		else {
-			throw new MailReceiverException("Unexpected content type '" + contentType + "' (" + MULTIPART_MIXED + " expected)");
+		else if ( !isAttachment(part) ) {
+			if ( TEXT_PLAIN.equals(type) && !mailMessageContent.hasBody() ) {
+				MailBody text = getText(part);
+				if ( text != null ) {
+					mailMessageContent.setBody(text);
+					return;
+				}
+			}
+			else if ( TEXT_HTML.equals(type) && !mailMessageContent.hasBodyHtml() ) {
+				MailBody text = getText(part);
+				if ( text != null ) {
+					mailMessageContent.setBodyHtml(text);
+					return;
+				}
+			}
+			else if ( type.startsWith(IMAGE) && MULTIPART_RELATED.equals(parentType) ) {
+				// Images embedded in message body (not stored)
+				return;
+			}
+			else if ( MULTIPART_ALTERNATIVE.equals(parentType) ) {
+				// other representation of a body already found ( eg "text/enriched" ) 
+				return;
+			}
 		}
+		saveAttachment(part, mailMessageContent); 
 	}
-	
-	private File saveAttachment(BodyPart bodyPart, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
-		log("parseAttachment..."  );
-		File attachmentFile = buildAttachmentFile(bodyPart, mailMessageContent);
-		// Create folder if not exist
-		File folder = attachmentFile.getParentFile();
-		if ( ! folder.exists() ) {
-			boolean created = folder.mkdir();
-			if (!created) {
-				throw new MailReceiverException("Cannot create folder " + folder.getAbsolutePath() );
-			}
+
+	/**
+	 * Returns the lower case base type ( "text/plain" for "Text/Plain; charset=utf-8" )
+	 * @param contentType
+	 * @return
+	 */
+	private String baseType(String contentType) {
+		if ( contentType == null ) {
+			return TEXT_PLAIN; // RFC 2045 default
 		}
-		// Save attachment as file (folder must exist)
-		MimeBodyPart part = (MimeBodyPart)bodyPart ;
-		part.saveFile(attachmentFile);
-		mailMessageContent.addAttachment(attachmentFile);
-		return attachmentFile;
+		int i = contentType.indexOf(';');
+		String type = ( i < 0 ) ? contentType : contentType.substring(0, i);
+		return type.trim().toLowerCase(Locale.ROOT);
 	}
 	
-	private File buildAttachmentFile(BodyPart bodyPart, MailMessageContent mailMessageContent) throws IOException, MessagingException {
-		String fileName = bodyPart.getFileName();
-		// message folder without invalid chars in folde name
-		String messageFolder = mailMessageContent.getMessageId().replaceAll("[<>\\\\]", "-");
-		File folder = new File(attachementsDirectory, messageFolder);
-		return new File(folder, fileName);
+	private boolean isAttachment(Part part) throws MessagingException {
+		String disposition ;
+		try {
+			disposition = part.getDisposition();
+		} catch (MessagingException e) {
+			// invalid "Content-Disposition" header 
+			return false;
+		}
+		return Part.ATTACHMENT.equalsIgnoreCase(disposition);
 	}
 	
 	/**
-	 * Parsing for "multipart/related", expected content : <br>
-	 * - message body in 2 formats (text and html) : multipart/alternative  <br>
-	 * - resources embedded in message body : 0..N resources ( image/jpeg, image/png, etc ) <br>
-	 * @param multipart
-	 * @param mailMessageContent
+	 * Returns the multipart content of the given part or null if the content is not a valid multipart 
+	 * @param part
+	 * @return
 	 * @throws IOException
-	 * @throws MessagingException
-	 * @throws MailReceiverException
 	 */
-	private void parseMultipartRelated(MimeMultipart multipart, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
-		log("parseMultipartRelated... ");
-		String contentType = multipart.getContentType();
-		if ( contentType.startsWith(MULTIPART_RELATED)) {
-			// 1 multipart/alternative + 1..N images expected 
-			for (int i = 0; i < multipart.getCount(); i++) {
-			    BodyPart bodyPart = multipart.getBodyPart(i);
-				log("parseMultipartRelated : part #" + i + " - content type : " + bodyPart.getContentType() );
-			    if ( bodyPart.isMimeType(MULTIPART_ALTERNATIVE)) {
-			    	parseMultipartAlternative(getMultipart(bodyPart.getContent()), mailMessageContent);
-			    }
-//			    else if ( bodyPart.isMimeType(TEXT_PLAIN)) {
-//			    	// Not expected
-//					log("parseMultipartRelated : text ");
-//			    }
-//			    else if ( bodyPart.isMimeType(TEXT_HTML)) {
-//			    	// Not expected
-//					log("parseMultipartRelated : html ");
-//			    }
-			    else if ( bodyPart.isMimeType("image/*")) {
-			    	// Images embedded in message body (if any)
-			    }
-			    else {
-					throw new MailReceiverException("Unexpected part type in '" + MULTIPART_RELATED  + "' : " + bodyPart.getContentType() );
-			    }
+	private Multipart getMultipart(Part part) throws IOException {
+		try {
+			Object content = part.getContent();
+			if ( content instanceof Multipart ) {
+				Multipart multipart = (Multipart) content;
+				multipart.getCount(); // forces the parsing
+				return multipart;
+			}
+		} catch (MessagingException e) {
+			if ( isLogEnabled() ) {
+				log("invalid multipart : " + e.getMessage() );
 			}
 		}
-		else {
-			throw new MailReceiverException("Unexpected content type '" + contentType + "' (" + MULTIPART_RELATED + " expected)");
-		}
+		return null;
 	}
 
 	/**
-	 * Parsing for "multipart/alternative", expected content (2 parts) : <br>
-	 * - the message body in 'text/plain' <br>
-	 * - the message body in 'text/html'  <br>
-	 * @param multipart
-	 * @param mailMessageContent
+	 * Returns the decoded text of the given part or null if it cannot be decoded 
+	 * @param part
+	 * @return
 	 * @throws IOException
 	 * @throws MessagingException
-	 * @throws MailReceiverException
 	 */
-	private void parseMultipartAlternative(MimeMultipart multipart, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
-		log("parseMultipartAlternative..." );
-		String contentType = multipart.getContentType();
-		if ( contentType.contains(MULTIPART_ALTERNATIVE)) {
-			// 2 parts expected : text/plain and text/html 
-			if ( multipart.getCount() == 2 ) {
-				for (int i = 0; i < multipart.getCount(); i++) {
-				    BodyPart bodyPart = multipart.getBodyPart(i);
-					log("parseMultipartAlternative : part #" + i + " - content type : " + bodyPart.getContentType() );
-				    if ( bodyPart.isMimeType(TEXT_PLAIN)) {
-				    	parseBodyPart(bodyPart, mailMessageContent);
-				    }
-				    else if ( bodyPart.isMimeType(TEXT_HTML)) {
-				    	parseBodyPart(bodyPart, mailMessageContent);
-				    }
-				    else {
-						throw new MailReceiverException("Unexpected part type in '" + MULTIPART_ALTERNATIVE  + "' : " + bodyPart.getContentType() );
-				    }
-				}
-			}
-			else {
-				throw new MailReceiverException("Unexpected number of parts in '" + MULTIPART_ALTERNATIVE + "' : " + multipart.getCount() + " (2 expected) ");
-			}
-		}
-		else {
-			throw new MailReceiverException("Unexpected content type '" + contentType + "' (" + MULTIPART_ALTERNATIVE + " expected)");
-		}
+	private MailBody getText(Part part) throws IOException, MessagingException {
+		// streaming decoding : bounded memory whatever the part size
+		return bodyDecoder.decode(part);
 	}
-
-	private void parseBodyPart(Part part, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
-		log("parseBodyPart content type : " + part.getContentType() );
-		if ( part.isMimeType(TEXT_PLAIN) ) {
-			Object o = part.getContent();
-			if ( o instanceof String ) {
-				mailMessageContent.setBody((String) o);
-			} else {
-				throw new MailReceiverException("Unexpected class for 'text/plain' part : " + o.getClass().getCanonicalName());
-			}
-		}
-		else if ( part.isMimeType(TEXT_HTML)) {
-			Object o = part.getContent();
-			if ( o instanceof String ) {
-				mailMessageContent.setBodyHtml((String) o);
-			} else {
-				throw new MailReceiverException("Unexpected class for 'text/html' part : " + o.getClass().getCanonicalName());
-			}
-		} 
-//		else if ( part.isMimeType(MULTIPART_ALTERNATIVE)) {
-//			parseMultipartAlternative( getMultipart(part.getContent()) , mailMessageContent );
-//		} 
-		
-		
-//		else if ( part.isMimeType(MULTIPART_RELATED)) {
-//			parseMultipartRelated( getMultipart(part.getContent()) , mailMessageContent );
-//		} 
-//		else if ( part.isMimeType(MULTIPART_MIXED)) {
-//			parseMultipartMixed( getMultipart(part.getContent()) , mailMessageContent );
-//		}
-		else {
-			throw new MailReceiverException("Unexpected content type '" + part.getContentType()  + "' for message body");
-		}
+	
+	private MailAttachment saveAttachment(Part part, MailMessageContent mailMessageContent) throws IOException, MessagingException, MailReceiverException {
+		log("parseAttachment..."  );
+		// Save attachment : decoded stream given to the attachment store
+		long start = metrics.startTimer();
+		MailAttachment attachment = attachmentStore.store(mailMessageContent.getMessageId(), 
+				part.getFileName(), part.getContentType(), part.getInputStream());
+		metrics.stopTimer(Phase.ATTACHMENT_WRITE, start);
+		metrics.increment(Counter.ATTACHMENTS, 1);
+		mailMessageContent.addAttachment(attachment);
+		return attachment;
 	}
-
 }
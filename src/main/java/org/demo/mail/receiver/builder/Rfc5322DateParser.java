@@ -0,0 +1,262 @@
+package org.demo.mail.receiver.builder;
+
+import java.time.Instant;
+
+/**
+ * Lightweight parser for the RFC 5322 date-time ( "Date" and "Received" header fields ) <br>
+ * e.g. "Tue, 1 Jul 2003 10:52:37 +0200" <br>
+ * The obsolete syntax is also accepted : 2 digits years, alphabetic zones ( "GMT", "EST", ... ),
+ * comments, missing seconds and missing day of week. <br>
+ * No intermediate object is created ( no 'SimpleDateFormat', no regex )
+ */
+public class Rfc5322DateParser {
+
+	private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun",
+			"jul", "aug", "sep", "oct", "nov", "dec" };
+
+	private final CharSequence s ;
+	private int pos ;
+	// number of digits of the last number read
+	private int digits ;
+
+	private Rfc5322DateParser(CharSequence s, int start) {
+		super();
+		this.s = s;
+		this.pos = start;
+	}
+
+	/**
+	 * Parses the given date-time
+	 * @param dateTime
+	 * @return the instant or null if the value cannot be parsed
+	 */
+	public static Instant parse(CharSequence dateTime) {
+		if ( dateTime == null ) {
+			return null;
+		}
+		return new Rfc5322DateParser(dateTime, 0).parseDateTime();
+	}
+
+	/**
+	 * Parses the date-time located after the last ';' of a "Received" header field <br>
+	 * e.g. "from mx.example.com by mail.example.org ; Tue, 1 Jul 2003 10:52:37 +0200"
+	 * @param received
+	 * @return the instant or null if the value cannot be parsed
+	 */
+	public static Instant parseReceived(String received) {
+		if ( received == null ) {
+			return null;
+		}
+		int i = received.lastIndexOf(';');
+		if ( i < 0 ) {
+			return null;
+		}
+		return new Rfc5322DateParser(received, i + 1).parseDateTime();
+	}
+
+	private Instant parseDateTime() {
+		skipSpaces();
+		// optional day of week ( "Tue," )
+		if ( pos < s.length() && Character.isLetter(s.charAt(pos)) ) {
+			while ( pos < s.length() && Character.isLetter(s.charAt(pos)) ) {
+				pos++;
+			}
+			skipSpaces();
+			if ( pos < s.length() && s.charAt(pos) == ',' ) {
+				pos++;
+			}
+		}
+		int day = number(1, 2);
+		int month = month();
+		int year = number(2, 4);
+		int yearDigits = digits ;
+		int hour = expectNumber(':');
+		int minute = number(2, 2);
+		int second = 0 ;
+		if ( pos < s.length() && s.charAt(pos) == ':' ) {
+			pos++;
+			second = number(2, 2);
+		}
+		int offsetMinutes = zone();
+
+		if ( day < 1 || month < 0 || year < 0 || hour < 0 || minute < 0 || second < 0 ) {
+			return null;
+		}
+		if ( day > 31 || hour > 23 || minute > 59 || second > 60 ) {
+			return null;
+		}
+		// obsolete years : 2 digits ( 00-49 => 20xx, 50-99 => 19xx ) or 3 digits ( + 1900 )
+		if ( year < 50 && yearDigits == 2 ) {
+			year += 2000 ;
+		}
+		else if ( year < 1000 ) {
+			year += 1900 ;
+		}
+		if ( day > daysInMonth(year, month + 1) ) { // e.g. "31 Feb"
+			return null;
+		}
+		if ( second == 60 ) { // leap second
+			second = 59 ;
+		}
+		long epochSecond = epochDay(year, month + 1, day) * 86400L
+				+ hour * 3600L + minute * 60L + second
+				- offsetMinutes * 60L ;
+		return Instant.ofEpochSecond(epochSecond);
+	}
+
+	private int number(int minDigits, int maxDigits) {
+		skipSpaces();
+		int value = 0 ;
+		int n = 0 ;
+		while ( pos < s.length() && n < maxDigits ) {
+			char c = s.charAt(pos);
+			if ( c < '0' || c > '9' ) {
+				break;
+			}
+			value = value * 10 + ( c - '0' );
+			pos++;
+			n++;
+		}
+		digits = n ;
+		return ( n >= minDigits ) ? value : -1 ;
+	}
+
+	private int expectNumber(char separator) {
+		int value = number(1, 2);
+		skipSpaces();
+		if ( pos < s.length() && s.charAt(pos) == separator ) {
+			pos++;
+			return value;
+		}
+		return -1;
+	}
+
+	private int month() {
+		skipSpaces();
+		if ( pos + 3 > s.length() ) {
+			return -1;
+		}
+		for ( int m = 0 ; m < MONTHS.length ; m++ ) {
+			String name = MONTHS[m];
+			if ( Character.toLowerCase(s.charAt(pos)) == name.charAt(0)
+					&& Character.toLowerCase(s.charAt(pos + 1)) == name.charAt(1)
+					&& Character.toLowerCase(s.charAt(pos + 2)) == name.charAt(2) ) {
+				pos += 3 ;
+				return m;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the zone offset in minutes ( 0 if missing or unknown, as specified by RFC 5322 )
+	 */
+	private int zone() {
+		skipSpaces();
+		if ( pos >= s.length() ) {
+			return 0;
+		}
+		char c = s.charAt(pos);
+		if ( c == '+' || c == '-' ) {
+			pos++;
+			int start = pos ;
+			int value = number(4, 4);
+			if ( value < 0 ) {
+				pos = start ;
+				return 0;
+			}
+			int offset = ( value / 100 ) * 60 + ( value % 100 ) ;
+			return ( c == '-' ) ? -offset : offset ;
+		}
+		int start = pos ;
+		while ( pos < s.length() && Character.isLetter(s.charAt(pos)) ) {
+			pos++;
+		}
+		switch ( pos - start ) {
+		case 2 : // "UT"
+			return 0;
+		case 3 :
+			return obsoleteZone(Character.toUpperCase(s.charAt(start)), Character.toUpperCase(s.charAt(start + 1)), 
+					Character.toUpperCase(s.charAt(start + 2)));
+		default : // military zones and unknown zones are considered as "-0000"
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the offset of the US zones ( "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT" ) <br>
+	 * "GMT" and the other zones ( e.g. "CET", "MET", "EET" ) are considered as "-0000" ( RFC 5322 4.3 ) 
+	 */
+	private int obsoleteZone(char first, char second, char third) {
+		if ( third != 'T' || ( second != 'S' && second != 'D' ) ) {
+			return 0;
+		}
+		int offset ;
+		switch (first) {
+		case 'E' : offset = -5 ; break;
+		case 'C' : offset = -6 ; break;
+		case 'M' : offset = -7 ; break;
+		case 'P' : offset = -8 ; break;
+		default : return 0; // unknown
+		}
+		if ( second == 'D' ) { // daylight saving time
+			offset += 1 ;
+		}
+		return offset * 60 ;
+	}
+
+	private void skipSpaces() {
+		while ( pos < s.length() ) {
+			char c = s.charAt(pos);
+			if ( c == '(' ) {
+				skipComment();
+			}
+			else if ( c == ' ' || c == '\t' || c == '\r' || c == '\n' ) {
+				pos++;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private void skipComment() {
+		int depth = 0 ;
+		while ( pos < s.length() ) {
+			char c = s.charAt(pos++);
+			if ( c == '\\' ) {
+				pos++;
+			}
+			else if ( c == '(' ) {
+				depth++;
+			}
+			else if ( c == ')' && --depth == 0 ) {
+				return;
+			}
+		}
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2 :
+			boolean leap = ( year % 4 == 0 ) && ( year % 100 != 0 || year % 400 == 0 ) ;
+			return leap ? 29 : 28 ;
+		case 4 : case 6 : case 9 : case 11 :
+			return 30;
+		default :
+			return 31;
+		}
+	}
+
+	/**
+	 * Number of days since 1970-01-01 for the given date (proleptic Gregorian calendar)
+	 */
+	private static long epochDay(int year, int month, int day) {
+		long y = ( month <= 2 ) ? year - 1 : year ;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400 ;
+		long dayOfYear = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1 ;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear ;
+		return era * 146097 + dayOfEra - 719468 ;
+	}
+}
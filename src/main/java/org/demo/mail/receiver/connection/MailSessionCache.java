@@ -0,0 +1,48 @@
+package org.demo.mail.receiver.connection;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.mail.Session;
+
+/**
+ * Cache of mail sessions keyed by the properties used to create them <br>
+ * Unlike 'Session.getDefaultInstance' each distinct configuration has its own session, 
+ * and the same configuration always gets the same session (provider lookups done only once)
+ */
+public class MailSessionCache {
+
+	private final Map<Properties, Session> sessions = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the session for the given properties (created if not yet in the cache)
+	 * @param properties
+	 * @return
+	 */
+	public Session getSession(Properties properties) {
+		if ( properties == null ) {
+			throw new IllegalArgumentException("properties is null");
+		}
+		Session session = sessions.get(properties);
+		if ( session == null ) {
+			// the key is a copy : the cache is not affected if the caller modifies the properties
+			Properties key = new Properties();
+			key.putAll(properties);
+			session = sessions.computeIfAbsent(key, k -> Session.getInstance(k));
+		}
+		return session;
+	}
+
+	/**
+	 * Returns the number of sessions in the cache
+	 * @return
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	public void clear() {
+		sessions.clear();
+	}
+}
@@ -0,0 +1,267 @@
+package org.demo.mail.receiver.connection;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.net.ssl.SSLSocket;
+
+import org.demo.mail.receiver.MailAccount;
+import org.demo.mail.receiver.MailReceiverException;
+
+import com.sun.mail.util.SocketFetcher;
+
+/**
+ * Deletes messages identified by their UID in a dedicated POP3 session : USER/PASS, UIDL, DELE x N, QUIT <br>
+ * If the server advertises the "PIPELINING" capability ( RFC 2449 ) the "DELE" commands are sent by batches 
+ * without waiting for each response, otherwise they are sent in lock-step mode (one command, one response). <br>
+ * Supports "pop3" (with "STLS" if 'mail.pop3.starttls.enable' is set) and "pop3s". 
+ * The sockets are created by the Jakarta Mail 'SocketFetcher' : the "mail.pop3.*" socket and SSL properties 
+ * are honored ( socketFactory, ssl.trust, ssl.protocols, proxy, timeouts, etc ). The server identity is always 
+ * checked ( "ssl.checkserveridentity" is true unless explicitly set to false ) and the credentials are never 
+ * sent if "starttls.required" is set and the connection is not secured. <br>
+ * Authentication with USER/PASS only ( see 'supportsAuthentication' ), the credentials containing CR or LF are rejected.
+ */
+public class Pop3UidDeleter {
+
+	private static final int PIPELINE_BATCH_SIZE = 128 ;
+	
+	private final Properties properties ;
+	private final String protocol ;
+	private final String prefix ;
+	
+	/**
+	 * Constructor
+	 * @param properties the mail properties ( "mail.pop3.host", "mail.pop3.port", timeouts, etc )
+	 * @param protocol "pop3" or "pop3s"
+	 */
+	public Pop3UidDeleter(Properties properties, String protocol) {
+		super();
+		this.protocol = protocol;
+		this.prefix = "mail." + protocol ;
+		// the properties given to the constructor are not modified
+		this.properties = new Properties();
+		this.properties.putAll(properties);
+		if ( this.properties.getProperty(prefix + ".ssl.checkserveridentity") == null ) {
+			// no credentials sent to a server whose certificate does not match the host name
+			this.properties.setProperty(prefix + ".ssl.checkserveridentity", "true");
+		}
+	}
+	
+	private String prop(String name, String defaultValue) {
+		return properties.getProperty(prefix + "." + name, defaultValue);
+	}
+	
+	private boolean boolProp(String name) {
+		return Boolean.parseBoolean(prop(name, "false"));
+	}
+	
+	private int intProp(String name, int defaultValue) {
+		return Integer.parseInt(prop(name, String.valueOf(defaultValue)));
+	}
+	
+	/**
+	 * Returns true if the authentication configured in the properties can be done by this class (USER/PASS) : 
+	 * no APOP and "LOGIN" as first SASL mechanism ( "mail.pop3.auth.mechanisms" ) 
+	 * @return
+	 */
+	public boolean supportsAuthentication() {
+		if ( boolProp("apop.enable") || boolProp("sasl.enable") ) {
+			return false;
+		}
+		String mechanisms = prop("auth.mechanisms", null);
+		return mechanisms == null || mechanisms.trim().toUpperCase(Locale.ROOT).startsWith("LOGIN");
+	}
+	
+	/**
+	 * Deletes the messages with the given UIDs (the UIDs no longer in the mailbox are ignored) <br>
+	 * The deletion is effective only if the session ends normally ("QUIT" accepted)
+	 * @param mailAccount
+	 * @param uids
+	 * @return the number of messages deleted
+	 * @throws MailReceiverException
+	 */
+	public int deleteByUid(MailAccount mailAccount, Collection<String> uids) throws MailReceiverException {
+		if ( uids.isEmpty() ) {
+			return 0;
+		}
+		String host = prop("host", "localhost");
+		boolean ssl = "pop3s".equals(protocol) || boolProp("ssl.enable") ;
+		int port = intProp("port", ssl ? 995 : 110);
+		if ( ! supportsAuthentication() ) {
+			throw new MailReceiverException("Authentication not supported for the deletion by UID (USER/PASS only)");
+		}
+		if ( ! isValidArgument(mailAccount.getUserName()) || ! isValidArgument(mailAccount.getUserPassword()) ) {
+			// no command injection in the POP3 session
+			throw new MailReceiverException("Invalid user name or password for the deletion by UID (CR or LF)");
+		}
+		try ( Socket socket = SocketFetcher.getSocket(host, port, properties, prefix, ssl) ) {
+			socket.setTcpNoDelay(true);
+			Connection connection = new Connection(socket);
+			connection.expectOk(connection.readLine()); // greeting
+			boolean secured = ssl ;
+			if ( ! ssl && ( boolProp("starttls.enable") || boolProp("starttls.required") ) ) {
+				secured = startTls(connection, socket, host);
+				if ( secured ) {
+					// TLS layered on the socket (closed with the socket)
+					connection = new Connection(SocketFetcher.startTLS(socket, host, properties, prefix));
+				}
+			}
+			if ( ! secured && boolProp("starttls.required") ) {
+				throw new MailReceiverException("STARTTLS is required but not supported by " + host + ":" + port);
+			}
+			connection.command("USER " + mailAccount.getUserName());
+			connection.command("PASS " + mailAccount.getUserPassword());
+			// capabilities read after the login ( RFC 2449 : they can change after authentication ) 
+			Set<String> capabilities = connection.capabilities();
+			List<Integer> messageNumbers = connection.messageNumbers(new HashSet<>(uids));
+			if ( capabilities.contains("PIPELINING") ) {
+				connection.pipelinedDelete(messageNumbers);
+			} else {
+				for ( Integer n : messageNumbers ) {
+					connection.command("DELE " + n);
+				}
+			}
+			// the deletions are committed by the server at "QUIT" 
+			connection.command("QUIT");
+			return messageNumbers.size();
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot delete messages on " + host + ":" + port, e);
+		}
+	}
+	
+	private boolean isValidArgument(String argument) {
+		return argument != null && argument.indexOf('\r') < 0 && argument.indexOf('\n') < 0 ;
+	}
+	
+	/**
+	 * Sends "STLS" 
+	 * @return true if the server accepts to start TLS
+	 */
+	private boolean startTls(Connection connection, Socket socket, String host) throws IOException {
+		if ( socket instanceof SSLSocket ) {
+			return true;
+		}
+		connection.send("STLS");
+		connection.out.flush();
+		return connection.readLine().startsWith("+OK");
+	}
+	
+	/**
+	 * Line-oriented POP3 connection 
+	 */
+	private static class Connection {
+		private final BufferedReader in ;
+		private final OutputStream out ;
+		
+		private Connection(Socket socket) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+		}
+		
+		private String readLine() throws IOException {
+			String line = in.readLine();
+			if ( line == null ) {
+				throw new IOException("Connection closed by server");
+			}
+			return line;
+		}
+		
+		private void expectOk(String response) throws IOException {
+			if ( ! response.startsWith("+OK") ) {
+				throw new IOException("Unexpected POP3 response : " + response);
+			}
+		}
+		
+		private void send(String command) throws IOException {
+			out.write(command.getBytes(StandardCharsets.UTF_8));
+			out.write('\r');
+			out.write('\n');
+		}
+		
+		private String command(String command) throws IOException {
+			send(command);
+			out.flush();
+			String response = readLine();
+			expectOk(response);
+			return response;
+		}
+		
+		private List<String> multilineCommand(String command) throws IOException {
+			command(command);
+			List<String> lines = new LinkedList<>();
+			String line ;
+			while ( ! ( line = readLine() ).equals(".") ) {
+				lines.add( line.startsWith("..") ? line.substring(1) : line );
+			}
+			return lines;
+		}
+		
+		private Set<String> capabilities() throws IOException {
+			Set<String> capabilities = new HashSet<>();
+			send("CAPA");
+			out.flush();
+			if ( readLine().startsWith("+OK") ) {
+				String line ;
+				while ( ! ( line = readLine() ).equals(".") ) {
+					capabilities.add(line.trim().split(" ")[0].toUpperCase(Locale.ROOT));
+				}
+			}
+			return capabilities;
+		}
+		
+		private List<Integer> messageNumbers(Set<String> uids) throws IOException {
+			Map<String, Integer> numbersByUid = new HashMap<>();
+			for ( String line : multilineCommand("UIDL") ) {
+				String[] parts = line.trim().split("\\s+");
+				if ( parts.length >= 2 ) {
+					numbersByUid.put(parts[1], Integer.valueOf(parts[0]));
+				}
+			}
+			List<Integer> numbers = new LinkedList<>();
+			for ( String uid : uids ) {
+				Integer n = numbersByUid.get(uid);
+				if ( n != null ) {
+					numbers.add(n);
+				}
+			}
+			return numbers;
+		}
+		
+		private void pipelinedDelete(List<Integer> messageNumbers) throws IOException {
+			// batches of commands : the number of responses pending is limited (client and server buffers)
+			List<Integer> batch = new LinkedList<>();
+			for ( Integer n : messageNumbers ) {
+				batch.add(n);
+				if ( batch.size() >= PIPELINE_BATCH_SIZE ) {
+					deleteBatch(batch);
+				}
+			}
+			deleteBatch(batch);
+		}
+		
+		private void deleteBatch(List<Integer> batch) throws IOException {
+			for ( Integer n : batch ) {
+				send("DELE " + n);
+			}
+			out.flush();
+			for ( int i = 0 ; i < batch.size() ; i++ ) {
+				expectOk(readLine());
+			}
+			batch.clear();
+		}
+	}
+}
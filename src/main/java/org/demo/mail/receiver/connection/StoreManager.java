@@ -0,0 +1,127 @@
+package org.demo.mail.receiver.connection;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.demo.mail.receiver.MailAccount;
+import org.demo.mail.receiver.MailReceiverException;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.NoSuchProviderException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+
+/**
+ * Limits the number of server connections used at the same time for each host,
+ * for several receivers and accounts (servers throttle per IP) <br>
+ * The stores are not reused : with POP3 the server session ends when the folder is closed
+ * (the deletions are committed only at "QUIT"), so a store kept open would have to connect,
+ * negotiate TLS and log in again anyway. Each 'acquire' connects a new store, each 'release' closes it.
+ */
+public class StoreManager {
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8 ;
+
+	private final int maxConnectionsPerHost ;
+
+	private final Map<String, Semaphore> hostPermits = new HashMap<>();
+
+	public StoreManager() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+
+	/**
+	 * Constructor
+	 * @param maxConnectionsPerHost maximum number of stores used at the same time for a host
+	 */
+	public StoreManager(int maxConnectionsPerHost) {
+		super();
+		if ( maxConnectionsPerHost < 1 ) {
+			throw new IllegalArgumentException("invalid maxConnectionsPerHost : " + maxConnectionsPerHost);
+		}
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	private synchronized Semaphore getHostPermits(String host) {
+		return hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConnectionsPerHost, true));
+	}
+
+	/**
+	 * Returns a connected store for the given account (waits if the maximum number of connections for the host is reached) <br>
+	 * The store must be given back with 'release' or 'invalidate'
+	 * @param session
+	 * @param protocol
+	 * @param host
+	 * @param mailAccount
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	public Store acquire(Session session, String protocol, String host, MailAccount mailAccount) throws MailReceiverException {
+		try {
+			getHostPermits(host).acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailReceiverException("Interrupted while waiting for a connection to " + host, e);
+		}
+		try {
+			return connect(session, protocol, mailAccount);
+		} catch (MailReceiverException | RuntimeException e) {
+			getHostPermits(host).release();
+			throw e;
+		}
+	}
+
+	private Store connect(Session session, String protocol, MailAccount mailAccount) throws MailReceiverException {
+		try {
+			// connects to the message store
+			Store store = session.getStore(protocol);
+			store.connect(mailAccount.getUserName(), mailAccount.getUserPassword());
+			return store;
+		} catch (NoSuchProviderException e) {
+			throw new MailReceiverException("Cannot get Store (NoSuchProviderException)", e);
+		} catch (MessagingException e) {
+			throw new MailReceiverException("Cannot connect to Store", e);
+		}
+	}
+
+	/**
+	 * Closes a store after a normal use and gives back its connection slot
+	 * @param store
+	 * @param host
+	 * @throws MailReceiverException if the store cannot be closed
+	 */
+	public void release(Store store, String host) throws MailReceiverException {
+		try {
+			store.close();
+		} catch (MessagingException e) {
+			throw new MailReceiverException("Cannot close Store", e);
+		} finally {
+			getHostPermits(host).release();
+		}
+	}
+
+	/**
+	 * Closes a store after an error (the closing errors are ignored) and gives back its connection slot
+	 * @param store
+	 * @param host
+	 */
+	public void invalidate(Store store, String host) {
+		try {
+			store.close();
+		} catch (MessagingException e) {
+			// ignored : the store is no longer usable
+		} finally {
+			getHostPermits(host).release();
+		}
+	}
+
+	/**
+	 * Returns the number of connections currently available for the given host
+	 * @param host
+	 * @return
+	 */
+	public int getAvailableConnections(String host) {
+		return getHostPermits(host).availablePermits();
+	}
+}
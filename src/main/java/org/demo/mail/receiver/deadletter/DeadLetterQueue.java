@@ -0,0 +1,184 @@
+package org.demo.mail.receiver.deadletter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Properties;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+/**
+ * Local directory keeping the messages that failed (see 'MailFailurePolicy.CONTINUE') <br>
+ * Each failed message is stored in 2 files named with the message key (the POP3 UID if known, percent-encoded) : <br>
+ * - "key.eml" : the raw message (as received from the server, written at the first failure) <br>
+ * - "key.properties" : the failure metadata (error, number of attempts, first and last failure time) <br>
+ * The failed message stays on the server and is retried at the next reception until 'maxAttempts' is reached. 
+ */
+public class DeadLetterQueue {
+
+	public static final String MESSAGE_FILE_EXTENSION  = ".eml" ;
+	public static final String METADATA_FILE_EXTENSION = ".properties" ;
+	
+	public static final String ATTEMPTS      = "attempts" ;
+	public static final String FIRST_FAILURE = "firstFailure" ;
+	public static final String LAST_FAILURE  = "lastFailure" ;
+	public static final String MESSAGE_ID    = "messageId" ;
+	public static final String ERROR         = "error" ;
+	public static final String ERROR_DETAIL  = "errorDetail" ;
+	
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	
+	private final File directory ;
+	
+	private int maxAttempts = 0 ;
+	
+	/**
+	 * Constructor
+	 * @param directory the dead-letter directory (created if necessary)
+	 */
+	public DeadLetterQueue(String directory) {
+		super();
+		if ( directory == null ) {
+			throw new IllegalArgumentException("directory is null");
+		}
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Sets the maximum number of attempts for a message : when reached the message is no longer retried 
+	 * (it is deleted from the server in "delete" mode, the dead-letter files are kept) 
+	 * @param maxAttempts the maximum number of attempts (0 for no limit, default = 0)
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if ( maxAttempts < 0 ) {
+			throw new IllegalArgumentException("invalid max attempts : " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Records a failure for the given message 
+	 * @param key the message key (POP3 UID or Message-ID)
+	 * @param message the raw message (written only at the first failure, null if not available)
+	 * @param messageId 
+	 * @param error
+	 * @return the number of attempts for this message (including this one)
+	 * @throws MailReceiverException
+	 */
+	public synchronized int record(String key, Message message, String messageId, Throwable error) throws MailReceiverException {
+		String fileName = fileName(key);
+		File messageFile = new File(directory, fileName + MESSAGE_FILE_EXTENSION);
+		File metadataFile = new File(directory, fileName + METADATA_FILE_EXTENSION);
+		if ( ! directory.exists() ) {
+			directory.mkdirs();
+		}
+		Properties metadata = loadMetadata(metadataFile);
+		String now = Instant.now().toString();
+		int attempts = Integer.parseInt(metadata.getProperty(ATTEMPTS, "0")) + 1 ;
+		if ( message != null && ! messageFile.exists() ) {
+			writeMessage(message, messageFile);
+		}
+		metadata.setProperty(ATTEMPTS, String.valueOf(attempts));
+		if ( metadata.getProperty(FIRST_FAILURE) == null ) {
+			metadata.setProperty(FIRST_FAILURE, now);
+		}
+		metadata.setProperty(LAST_FAILURE, now);
+		if ( messageId != null ) {
+			metadata.setProperty(MESSAGE_ID, messageId);
+		}
+		metadata.setProperty(ERROR, String.valueOf(error));
+		metadata.setProperty(ERROR_DETAIL, stackTrace(error));
+		try ( OutputStream out = new FileOutputStream(metadataFile) ) {
+			metadata.store(out, "Dead letter : " + key);
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot write dead-letter file " + metadataFile.getAbsolutePath(), e);
+		}
+		return attempts;
+	}
+
+	/**
+	 * Returns true if the given number of attempts has reached the maximum number of attempts
+	 * @param attempts
+	 * @return
+	 */
+	public boolean isExhausted(int attempts) {
+		return maxAttempts > 0 && attempts >= maxAttempts ;
+	}
+
+	/**
+	 * Removes the dead-letter files of the given message if any (message processed successfully after a failure)
+	 * @param key
+	 */
+	public synchronized void remove(String key) {
+		String fileName = fileName(key);
+		File metadataFile = new File(directory, fileName + METADATA_FILE_EXTENSION);
+		if ( metadataFile.exists() ) {
+			new File(directory, fileName + MESSAGE_FILE_EXTENSION).delete();
+			metadataFile.delete();
+		}
+	}
+	
+	/**
+	 * Returns the file name of the given key : percent-encoding of the UTF-8 bytes other than [A-Za-z0-9._@-] 
+	 * (2 different keys never have the same file name, the keys with only these characters are kept as is)
+	 * @param key
+	 * @return
+	 */
+	private String fileName(String key) {
+		StringBuilder sb = new StringBuilder(key.length());
+		for ( byte b : key.getBytes(StandardCharsets.UTF_8) ) {
+			char c = (char) ( b & 0xFF ) ;
+			if ( ( c >= 'A' && c <= 'Z' ) || ( c >= 'a' && c <= 'z' ) || ( c >= '0' && c <= '9' ) 
+					|| c == '.' || c == '_' || c == '@' || c == '-' ) {
+				sb.append(c);
+			}
+			else {
+				sb.append('%').append(HEX[( b >> 4 ) & 0x0F]).append(HEX[b & 0x0F]);
+			}
+		}
+		return sb.toString();
+	}
+	
+	private Properties loadMetadata(File metadataFile) throws MailReceiverException {
+		Properties metadata = new Properties();
+		if ( metadataFile.exists() ) {
+			try ( InputStream in = new FileInputStream(metadataFile) ) {
+				metadata.load(in);
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot read dead-letter file " + metadataFile.getAbsolutePath(), e);
+			}
+		}
+		return metadata;
+	}
+	
+	private void writeMessage(Message message, File messageFile) {
+		try ( OutputStream out = new FileOutputStream(messageFile) ) {
+			message.writeTo(out);
+		} catch (IOException | MessagingException e) {
+			// the message itself cannot be retrieved : only the metadata is kept
+			messageFile.delete();
+		}
+	}
+	
+	private String stackTrace(Throwable error) {
+		StringWriter stringWriter = new StringWriter();
+		if ( error != null ) {
+			error.printStackTrace(new PrintWriter(stringWriter));
+		}
+		return stringWriter.toString();
+	}
+}
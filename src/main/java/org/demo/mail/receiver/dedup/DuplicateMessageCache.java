@@ -0,0 +1,308 @@
+package org.demo.mail.receiver.dedup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+/**
+ * Cache of the keys of the messages already processed ( see 'DuplicateMessageDetector' ) <br>
+ * Thread-safe, can be shared by several receivers (one receiver per account). <br>
+ * The keys expire after the given time to live. The number of keys kept in memory is bounded : 
+ * the oldest keys are evicted, or moved to the spill directory if any (one file per bucket of keys, 
+ * read only when a key is not found in memory and may be in the bucket according to its Bloom filter).
+ */
+public class DuplicateMessageCache {
+
+	private static final int SPILL_BUCKETS = 256 ;
+	
+	// per bucket : 64K bits (8 KB), about 1% of false positives up to 6000 spilled keys 
+	private static final int BLOOM_FILTER_BITS = 1 << 16 ;
+	
+	private static final int BLOOM_FILTER_HASHES = 5 ;
+	
+	private final int maxEntries ;
+	
+	private final long timeToLiveMillis ;
+	
+	// key -> expiration time
+	private final Map<String, Long> entries = new ConcurrentHashMap<>();
+	
+	// keys in insertion order (for the eviction)
+	private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+	
+	// buckets of the spill directory (null for no spill), replaced as a whole when the directory changes
+	private volatile SpillBucket[] spillBuckets = null ;
+	
+	/**
+	 * Constructor
+	 * @param maxEntries maximum number of keys kept in memory
+	 * @param timeToLiveMillis time during which a key is kept (in milliseconds)
+	 */
+	public DuplicateMessageCache(int maxEntries, long timeToLiveMillis) {
+		super();
+		if ( maxEntries < 1 ) {
+			throw new IllegalArgumentException("invalid max entries : " + maxEntries);
+		}
+		if ( timeToLiveMillis < 1 ) {
+			throw new IllegalArgumentException("invalid time to live : " + timeToLiveMillis);
+		}
+		this.maxEntries = maxEntries;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	/**
+	 * Sets the directory where the keys evicted from memory are kept until they expire <br>
+	 * Can be called while the cache is used : the threads using the previous directory finish with it
+	 * @param spillDirectory the directory (null for no spill : the evicted keys are forgotten)
+	 */
+	public void setSpillDirectory(String spillDirectory) {
+		if ( spillDirectory != null ) {
+			File directory = new File(spillDirectory);
+			SpillBucket[] buckets = new SpillBucket[SPILL_BUCKETS];
+			for ( int i = 0 ; i < SPILL_BUCKETS ; i++ ) {
+				buckets[i] = new SpillBucket(directory, i);
+			}
+			this.spillBuckets = buckets ;
+		}
+		else {
+			this.spillBuckets = null ;
+		}
+	}
+
+	/**
+	 * Returns true if the given key is in the cache and not expired 
+	 * @param key
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	public boolean contains(String key) throws MailReceiverException {
+		long now = System.currentTimeMillis();
+		Long expiration = entries.get(key);
+		if ( expiration != null ) {
+			return expiration > now ;
+		}
+		SpillBucket[] buckets = spillBuckets ;
+		return buckets != null && bucket(buckets, key).expiration(key) > now ;
+	}
+
+	/**
+	 * Adds the given key (the expiration time is reset if already present) 
+	 * @param key
+	 * @throws MailReceiverException
+	 */
+	public void add(String key) throws MailReceiverException {
+		if ( entries.put(key, System.currentTimeMillis() + timeToLiveMillis) == null ) {
+			insertionOrder.add(key);
+		}
+		evict();
+	}
+	
+	/**
+	 * Returns the number of keys in memory
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private void evict() throws MailReceiverException {
+		long now = System.currentTimeMillis();
+		SpillBucket[] buckets = spillBuckets ;
+		while ( entries.size() > maxEntries || isHeadExpired(now) ) {
+			String key = insertionOrder.poll();
+			if ( key == null ) {
+				return;
+			}
+			Long expiration = entries.remove(key);
+			if ( expiration != null && expiration > now && buckets != null ) {
+				bucket(buckets, key).spill(key, expiration);
+			}
+		}
+	}
+	
+	private boolean isHeadExpired(long now) {
+		String key = insertionOrder.peek();
+		if ( key == null ) {
+			return false;
+		}
+		Long expiration = entries.get(key);
+		return expiration == null || expiration <= now ;
+	}
+	
+	private static SpillBucket bucket(SpillBucket[] buckets, String key) {
+		return buckets[ ( key.hashCode() & 0x7fffffff ) % SPILL_BUCKETS ];
+	}
+	
+	/**
+	 * Bucket of spilled keys : one file, and a Bloom filter of its keys kept in memory 
+	 * (the file is read only if the key may be in it) <br>
+	 * Each bucket has its own lock
+	 */
+	private static final class SpillBucket {
+		
+		private final File spillDirectory ;
+		
+		private final int index ;
+		
+		private final BitSet bloomFilter = new BitSet(BLOOM_FILTER_BITS);
+		
+		private boolean loaded = false ;
+		
+		private SpillBucket(File spillDirectory, int index) {
+			super();
+			this.spillDirectory = spillDirectory;
+			this.index = index;
+		}
+		
+		private File file() {
+			return new File(spillDirectory, String.format("bucket-%03d.keys", index));
+		}
+		
+		private synchronized void spill(String key, long expiration) throws MailReceiverException {
+			load();
+			File file = file();
+			try {
+				if ( ! spillDirectory.exists() ) {
+					spillDirectory.mkdirs();
+				}
+				try ( Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, 
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND) ) {
+					writer.write(expiration + " " + key + "\n");
+				}
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot write spill file " + file.getAbsolutePath(), e);
+			}
+			addToFilter(key);
+		}
+		
+		/**
+		 * Returns the expiration time of the given key in the bucket file (0 if not found) <br>
+		 * The bucket file is rewritten without its expired keys
+		 * @param key
+		 * @return
+		 * @throws MailReceiverException
+		 */
+		private synchronized long expiration(String key) throws MailReceiverException {
+			load();
+			if ( ! mayContain(key) ) {
+				return 0;
+			}
+			File file = file();
+			if ( ! file.exists() ) {
+				return 0;
+			}
+			long now = System.currentTimeMillis();
+			long result = 0 ;
+			List<String> live = new ArrayList<>();
+			int lines = 0 ;
+			try {
+				try ( BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8) ) {
+					String line ;
+					while ( ( line = reader.readLine() ) != null ) {
+						lines++;
+						int i = line.indexOf(' ');
+						if ( i > 0 ) {
+							long expiration = Long.parseLong(line.substring(0, i));
+							if ( expiration > now ) {
+								live.add(line);
+								if ( key.equals(line.substring(i + 1)) ) {
+									result = Math.max(result, expiration);
+								}
+							}
+						}
+					}
+				}
+				if ( live.size() < lines / 2 ) {
+					// more than half of the keys expired : file and filter rebuilt with the live keys
+					File tmpFile = new File(file.getPath() + ".tmp");
+					Files.write(tmpFile.toPath(), live, StandardCharsets.UTF_8);
+					Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					bloomFilter.clear();
+					for ( String line : live ) {
+						addToFilter(line.substring(line.indexOf(' ') + 1));
+					}
+				}
+			} catch (IOException | NumberFormatException e) {
+				throw new MailReceiverException("Cannot read spill file " + file.getAbsolutePath(), e);
+			}
+			return result;
+		}
+		
+		/**
+		 * Loads the filter with the keys of the existing file (spilled by a previous run), once
+		 * @throws MailReceiverException
+		 */
+		private void load() throws MailReceiverException {
+			if ( loaded ) {
+				return;
+			}
+			File file = file();
+			if ( file.exists() ) {
+				try ( BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8) ) {
+					String line ;
+					while ( ( line = reader.readLine() ) != null ) {
+						int i = line.indexOf(' ');
+						if ( i > 0 ) {
+							addToFilter(line.substring(i + 1));
+						}
+					}
+				} catch (IOException e) {
+					throw new MailReceiverException("Cannot read spill file " + file.getAbsolutePath(), e);
+				}
+			}
+			loaded = true;
+		}
+		
+		private void addToFilter(String key) {
+			long hash = hash(key);
+			for ( int i = 0 ; i < BLOOM_FILTER_HASHES ; i++ ) {
+				bloomFilter.set(bloomFilterIndex(hash, i));
+			}
+		}
+		
+		private boolean mayContain(String key) {
+			long hash = hash(key);
+			for ( int i = 0 ; i < BLOOM_FILTER_HASHES ; i++ ) {
+				if ( ! bloomFilter.get(bloomFilterIndex(hash, i)) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * 64-bit FNV-1a hash, independent from 'String.hashCode' (used to select the bucket)
+	 * @param key
+	 * @return
+	 */
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L ;
+		for ( int i = 0 ; i < key.length() ; i++ ) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L ;
+		}
+		return hash;
+	}
+	
+	private static int bloomFilterIndex(long hash, int i) {
+		// double hashing : h1 + i * h2
+		int h1 = (int) hash ;
+		int h2 = (int) ( hash >>> 32 ) | 1 ;
+		return ( h1 + i * h2 ) & ( BLOOM_FILTER_BITS - 1 ) ;
+	}
+}
@@ -0,0 +1,98 @@
+package org.demo.mail.receiver.dedup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Detection of the messages already processed, by this receiver or by another one sharing the same cache 
+ * (same message received by several accounts) <br>
+ * A message is identified by its Message-ID and a SHA-256 digest of its raw content (without the header fields 
+ * that differ from one account to another : "Received", "Delivered-To", etc). 
+ * The digest is computed while streaming the raw content, before any parsing.
+ */
+public class DuplicateMessageDetector {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	// buffer allocated for each message (not per thread : the workers can be virtual threads)
+	private static final int BUFFER_SIZE = 16 * 1024 ;
+	
+	private final DuplicateMessageCache cache ;
+	
+	/**
+	 * Constructor
+	 * @param cache the cache (can be shared by several detectors)
+	 */
+	public DuplicateMessageDetector(DuplicateMessageCache cache) {
+		super();
+		if ( cache == null ) {
+			throw new IllegalArgumentException("cache is null");
+		}
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the key of the given message ( Message-ID + content digest ) 
+	 * @param message
+	 * @param messageId
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	public String getKey(Message message, String messageId) throws MailReceiverException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			if ( messageId != null ) {
+				digest.update(messageId.getBytes(StandardCharsets.UTF_8));
+			}
+			// raw content : not decoded, headers excluded
+			try ( InputStream in = ( message instanceof MimeMessage ) ? ((MimeMessage) message).getRawInputStream() 
+					: message.getInputStream() ) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n ;
+				while ( ( n = in.read(buffer) ) > 0 ) {
+					digest.update(buffer, 0, n);
+				}
+			}
+			return toHex(digest.digest());
+		} catch (NoSuchAlgorithmException | IOException | MessagingException e) {
+			throw new MailReceiverException("Cannot compute message digest", e);
+		}
+	}
+
+	/**
+	 * Returns true if a message with the given key has already been processed 
+	 * @param key
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	public boolean isDuplicate(String key) throws MailReceiverException {
+		return cache.contains(key);
+	}
+
+	/**
+	 * Registers the given key as processed 
+	 * @param key
+	 * @throws MailReceiverException
+	 */
+	public void registerProcessed(String key) throws MailReceiverException {
+		cache.add(key);
+	}
+	
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for ( int i = 0 ; i < bytes.length ; i++ ) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,174 @@
+package org.demo.mail.receiver.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+/**
+ * Persistent index of the messages already processed, identified by their POP3 UID (UIDL) <br>
+ * The UIDs are kept in memory (hash set) and stored on disk in an append-only log file (1 UID per line). <br>
+ * The log file is rewritten ('compact') when it contains too many UIDs no longer present in the mailbox.
+ */
+public class SeenMessageIndex implements AutoCloseable {
+
+	private final File file ;
+	
+	private final Set<String> uids = new HashSet<>();
+	
+	private FileOutputStream fileOutputStream ;
+	
+	private Writer writer ;
+	
+	/**
+	 * Opens (or creates) the index stored in the given file
+	 * @param file
+	 * @throws MailReceiverException
+	 */
+	public SeenMessageIndex(File file) throws MailReceiverException {
+		super();
+		if ( file == null ) {
+			throw new IllegalArgumentException("file is null");
+		}
+		this.file = file;
+		load();
+	}
+	
+	private void load() throws MailReceiverException {
+		if ( file.exists() ) {
+			try ( BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8) ) {
+				String line ;
+				while ( ( line = reader.readLine() ) != null ) {
+					if ( ! line.isEmpty() ) {
+						uids.add(line);
+					}
+				}
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot load index file " + file.getAbsolutePath(), e);
+			}
+		}
+	}
+	
+	private Writer getWriter() throws IOException {
+		if ( writer == null ) {
+			File folder = file.getAbsoluteFile().getParentFile();
+			if ( folder != null && ! folder.exists() ) {
+				folder.mkdirs();
+			}
+			fileOutputStream = new FileOutputStream(file, true); // append mode
+			writer = new BufferedWriter(new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8));
+		}
+		return writer;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of UIDs in the index
+	 * @return
+	 */
+	public synchronized int size() {
+		return uids.size();
+	}
+	
+	/**
+	 * Returns true if the given UID is in the index
+	 * @param uid
+	 * @return
+	 */
+	public synchronized boolean contains(String uid) {
+		return uid != null && uids.contains(uid);
+	}
+
+	/**
+	 * Adds the given UID in the index (appended to the log file)
+	 * @param uid
+	 * @throws MailReceiverException
+	 */
+	public synchronized void add(String uid) throws MailReceiverException {
+		if ( uid != null && uids.add(uid) ) {
+			try {
+				Writer w = getWriter();
+				w.write(uid);
+				w.write('\n');
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot write index file " + file.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending UIDs to the disk
+	 * @throws MailReceiverException
+	 */
+	public synchronized void flush() throws MailReceiverException {
+		if ( writer != null ) {
+			try {
+				writer.flush();
+				fileOutputStream.getFD().sync();
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot flush index file " + file.getAbsolutePath(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Removes from the index the UIDs not in the given collection (messages no longer in the mailbox) <br>
+	 * The log file is rewritten only if at least half of the UIDs are obsolete 
+	 * @param liveUids the UIDs of all the messages currently in the mailbox
+	 * @throws MailReceiverException
+	 */
+	public synchronized void compact(Collection<String> liveUids) throws MailReceiverException {
+		Set<String> retained = new HashSet<>(liveUids);
+		retained.retainAll(uids);
+		int obsolete = uids.size() - retained.size() ;
+		if ( obsolete > retained.size() ) {
+			close();
+			File tmpFile = new File(file.getPath() + ".tmp");
+			try {
+				try ( FileOutputStream out = new FileOutputStream(tmpFile) ) {
+					Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+					for ( String uid : retained ) {
+						w.write(uid);
+						w.write('\n');
+					}
+					w.flush();
+					// the new file must be on the disk before replacing the old one
+					out.getFD().sync();
+				}
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot compact index file " + file.getAbsolutePath(), e);
+			}
+			uids.retainAll(retained);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws MailReceiverException {
+		if ( writer != null ) {
+			flush();
+			try {
+				writer.close();
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot close index file " + file.getAbsolutePath(), e);
+			} finally {
+				writer = null;
+				fileOutputStream = null;
+			}
+		}
+	}
+}
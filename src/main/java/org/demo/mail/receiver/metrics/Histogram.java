@@ -0,0 +1,91 @@
+package org.demo.mail.receiver.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations (nanoseconds) with power of 2 buckets <br>
+ * Recording a value does not allocate. The percentiles are approximated by the bucket upper bound. 
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 64 ;
+	
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	public Histogram() {
+		super();
+		for ( int i = 0 ; i < BUCKETS ; i++ ) {
+			buckets[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Records a value 
+	 * @param value (negative values are recorded as 0)
+	 */
+	public void record(long value) {
+		long v = Math.max(value, 0);
+		// bucket 0 contains 0, bucket i contains the values in [ 2^(i-1), 2^i [ 
+		buckets[BUCKETS - Long.numberOfLeadingZeros(v)].increment();
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	public void reset() {
+		for ( LongAdder bucket : buckets ) {
+			bucket.reset();
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n > 0 ? (double) sum.sum() / n : 0 ;
+	}
+	
+	/**
+	 * Returns the approximated value for the given percentile 
+	 * @param percentile (0 to 100)
+	 * @return the upper bound of the bucket containing the percentile (limited to the max value)
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0 ;
+		for ( int i = 0 ; i < BUCKETS ; i++ ) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if ( total == 0 ) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long cumulated = 0 ;
+		for ( int i = 0 ; i < BUCKETS ; i++ ) {
+			cumulated += counts[i];
+			if ( cumulated >= rank && counts[i] > 0 ) {
+				long upperBound = ( i >= 63 ) ? Long.MAX_VALUE : ( 1L << i ) - 1 ;
+				return Math.min(upperBound, getMax());
+			}
+		}
+		return getMax();
+	}
+}
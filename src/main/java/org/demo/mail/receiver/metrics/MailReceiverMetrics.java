@@ -0,0 +1,87 @@
+package org.demo.mail.receiver.metrics;
+
+/**
+ * Instrumentation of the mail receiver : timers by phase and counters <br>
+ * The calls are done in the hot path : implementations must be cheap and thread-safe. <br>
+ * Usage : 
+ * <pre>
+ *   long start = metrics.startTimer();
+ *   ...
+ *   metrics.stopTimer(Phase.PARSE, start);
+ * </pre>
+ */
+public interface MailReceiverMetrics {
+
+	/**
+	 * Receiver phases measured 
+	 */
+	enum Phase {
+		CONNECT,
+		FETCH,
+		PARSE,
+		ATTACHMENT_WRITE,
+		PROCESS,
+		EXPUNGE
+	}
+	
+	/**
+	 * Counters 
+	 */
+	enum Counter {
+		MESSAGES,
+		BYTES,
+		ATTACHMENTS,
+		FAILURES,
+		DUPLICATES
+	}
+	
+	/**
+	 * Metrics doing nothing (default)
+	 */
+	MailReceiverMetrics NONE = new MailReceiverMetrics() {
+		@Override
+		public long startTimer() {
+			return 0;
+		}
+		@Override
+		public void stopTimer(Phase phase, long start) {
+			// nothing
+		}
+		@Override
+		public void increment(Counter counter, long value) {
+			// nothing
+		}
+		@Override
+		public void countPart(String contentType) {
+			// nothing
+		}
+	};
+	
+	/**
+	 * Returns the start time to give to 'stopTimer'
+	 * @return
+	 */
+	long startTimer();
+	
+	/**
+	 * Records the duration of the given phase 
+	 * @param phase
+	 * @param start the value returned by 'startTimer'
+	 */
+	void stopTimer(Phase phase, long start);
+	
+	/**
+	 * Increments the given counter 
+	 * @param counter
+	 * @param value
+	 */
+	void increment(Counter counter, long value);
+	
+	/**
+	 * Counts a MIME part parsed 
+	 * @param contentType the part content type, preferably the base type already extracted ( "text/plain" ) 
+	 * (the parameters are accepted, at the cost of an extraction)
+	 */
+	void countPart(String contentType);
+	
+}
@@ -0,0 +1,167 @@
+package org.demo.mail.receiver.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics registry kept in memory : a histogram per phase, a counter per 'Counter' and per MIME type <br>
+ * Can be exported via JMX ( see 'registerMBean' ) 
+ */
+public class SimpleMailReceiverMetrics implements MailReceiverMetrics, SimpleMailReceiverMetricsMXBean {
+
+	private static final double NANOS_PER_MILLI = 1_000_000.0 ;
+	
+	private final Map<Phase, Histogram> timers = new EnumMap<>(Phase.class);
+	private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+	private final Map<String, LongAdder> parts = new ConcurrentHashMap<>();
+	
+	public SimpleMailReceiverMetrics() {
+		super();
+		init();
+	}
+	
+	private void init() {
+		for ( Phase phase : Phase.values() ) {
+			timers.put(phase, new Histogram());
+		}
+		for ( Counter counter : Counter.values() ) {
+			counters.put(counter, new LongAdder());
+		}
+	}
+
+	/**
+	 * Registers this instance in the platform MBean server
+	 * @param name the name used in the object name "org.demo.mail.receiver:type=MailReceiverMetrics,name=..."
+	 * @return the object name 
+	 * @throws JMException
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("org.demo.mail.receiver:type=MailReceiverMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+	
+	//--------------------------------------------------------------------------------
+	// Recording 
+	//--------------------------------------------------------------------------------
+	@Override
+	public long startTimer() {
+		return System.nanoTime();
+	}
+
+	@Override
+	public void stopTimer(Phase phase, long start) {
+		timers.get(phase).record(System.nanoTime() - start);
+	}
+
+	@Override
+	public void increment(Counter counter, long value) {
+		counters.get(counter).add(value);
+	}
+
+	@Override
+	public void countPart(String contentType) {
+		if ( contentType != null ) {
+			// fast path (no allocation) : base type given by the parser ( "image/png" ), already counted
+			LongAdder adder = parts.get(contentType);
+			if ( adder == null ) {
+				// the key is the MIME type without the parameters ( boundary, charset, etc )
+				adder = parts.computeIfAbsent(mimeType(contentType), k -> new LongAdder());
+			}
+			adder.increment();
+		}
+	}
+	
+	private static String mimeType(String contentType) {
+		int i = contentType.indexOf(';');
+		String mimeType = ( i >= 0 ) ? contentType.substring(0, i) : contentType ;
+		return mimeType.trim().toLowerCase(Locale.ROOT);
+	}
+	
+	//--------------------------------------------------------------------------------
+	// Reading 
+	//--------------------------------------------------------------------------------
+	public Histogram getTimer(Phase phase) {
+		return timers.get(phase);
+	}
+	
+	public long getCounter(Counter counter) {
+		return counters.get(counter).sum();
+	}
+	
+	@Override
+	public long getMessages() {
+		return getCounter(Counter.MESSAGES);
+	}
+
+	@Override
+	public long getBytes() {
+		return getCounter(Counter.BYTES);
+	}
+
+	@Override
+	public long getAttachments() {
+		return getCounter(Counter.ATTACHMENTS);
+	}
+
+	@Override
+	public long getFailures() {
+		return getCounter(Counter.FAILURES);
+	}
+
+	@Override
+	public long getDuplicates() {
+		return getCounter(Counter.DUPLICATES);
+	}
+
+	@Override
+	public Map<String, Long> getPartsByMimeType() {
+		Map<String, Long> map = new TreeMap<>();
+		for ( Map.Entry<String, LongAdder> entry : parts.entrySet() ) {
+			map.put(entry.getKey(), entry.getValue().sum());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getTimers() {
+		Map<String, Double> map = new TreeMap<>();
+		for ( Phase phase : Phase.values() ) {
+			Histogram histogram = timers.get(phase);
+			String name = phase.name().toLowerCase(Locale.ROOT);
+			map.put(name + ".count",   (double) histogram.getCount());
+			map.put(name + ".mean.ms", histogram.getMean() / NANOS_PER_MILLI);
+			map.put(name + ".p50.ms",  histogram.getPercentile(50) / NANOS_PER_MILLI);
+			map.put(name + ".p99.ms",  histogram.getPercentile(99) / NANOS_PER_MILLI);
+			map.put(name + ".max.ms",  histogram.getMax() / NANOS_PER_MILLI);
+		}
+		return map;
+	}
+
+	@Override
+	public void reset() {
+		for ( Histogram histogram : timers.values() ) {
+			histogram.reset();
+		}
+		for ( LongAdder adder : counters.values() ) {
+			adder.reset();
+		}
+		parts.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return "messages=" + getMessages() + " bytes=" + getBytes() + " attachments=" + getAttachments() 
+				+ " failures=" + getFailures() + " parts=" + getPartsByMimeType() + " timers=" + getTimers();
+	}
+}
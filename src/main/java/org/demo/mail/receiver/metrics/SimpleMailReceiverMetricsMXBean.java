@@ -0,0 +1,33 @@
+package org.demo.mail.receiver.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of 'SimpleMailReceiverMetrics'
+ */
+public interface SimpleMailReceiverMetricsMXBean {
+
+	long getMessages();
+	
+	long getBytes();
+	
+	long getAttachments();
+	
+	long getFailures();
+	
+	long getDuplicates();
+	
+	/**
+	 * Returns the number of parts parsed by MIME type ( "text/plain", "image/png", etc )
+	 * @return
+	 */
+	Map<String, Long> getPartsByMimeType();
+	
+	/**
+	 * Returns the timers statistics : "phase.count", "phase.mean.ms", "phase.p50.ms", "phase.p99.ms", "phase.max.ms" 
+	 * @return
+	 */
+	Map<String, Double> getTimers();
+	
+	void reset();
+}
@@ -0,0 +1,23 @@
+package org.demo.mail.receiver.scheduler;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+public interface MailPollingListener {
+
+	/**
+	 * Called after a successful poll 
+	 * @param polledAccount
+	 * @param messagesProcessed number of messages processed
+	 */
+	void pollSucceeded(PolledAccount polledAccount, int messagesProcessed);
+
+	/**
+	 * Called after a failed poll
+	 * @param polledAccount
+	 * @param exception
+	 * @param consecutiveFailures number of consecutive failures for this account
+	 * @param nextPollDelayMillis delay before the next attempt (backoff)
+	 */
+	void pollFailed(PolledAccount polledAccount, MailReceiverException exception, int consecutiveFailures, long nextPollDelayMillis);
+	
+}
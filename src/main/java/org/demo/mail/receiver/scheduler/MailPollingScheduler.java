@@ -0,0 +1,310 @@
+package org.demo.mail.receiver.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+/**
+ * Polls a set of mail accounts periodically : <br>
+ * - each account has its own interval, with a random jitter to spread the polls over time <br>
+ * - the polls are executed in parallel by a pool of workers, a slow mailbox does not block the others <br>
+ * - the number of polls running at the same time for a host is limited (servers throttle per IP), 
+ *   an account whose host is saturated waits in a FIFO queue of the host, without holding a worker, 
+ *   and is started as soon as a poll of the host ends <br>
+ * - an account failing with 'MailReceiverException' is retried with an exponential backoff <br>
+ * An account is never polled twice at the same time.
+ */
+public class MailPollingScheduler implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(MailPollingScheduler.class.getName());
+
+	public static final int    DEFAULT_MAX_POLLS_PER_HOST = 4 ;
+	public static final double DEFAULT_JITTER_RATIO = 0.1 ;
+	public static final long   DEFAULT_MAX_BACKOFF_MILLIS = 3_600_000 ; // 1 hour
+	
+	private final ScheduledExecutorService timer ;
+	private final ExecutorService workers ;
+	private final int maxPollsPerHost ;
+	
+	private double jitterRatio = DEFAULT_JITTER_RATIO ;
+	private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS ;
+	private MailPollingListener listener = null ;
+	
+	private final Map<String, HostSlots> hostSlots = new ConcurrentHashMap<>();
+	private final Map<PolledAccount, AccountState> accounts = new ConcurrentHashMap<>();
+	
+	private static class AccountState {
+		private int consecutiveFailures = 0 ;
+		private volatile ScheduledFuture<?> next ;
+		private volatile boolean removed = false ;
+	}
+	
+	/**
+	 * Polls of a host : number of polls running and accounts waiting for a free slot (FIFO)
+	 */
+	private static class HostSlots {
+		private int running = 0 ;
+		private final Deque<WaitingPoll> waiting = new ArrayDeque<>();
+	}
+	
+	private static class WaitingPoll {
+		private final PolledAccount polledAccount ;
+		private final AccountState state ;
+		
+		private WaitingPoll(PolledAccount polledAccount, AccountState state) {
+			this.polledAccount = polledAccount;
+			this.state = state;
+		}
+	}
+	
+	/**
+	 * Constructor with 1 worker per available processor
+	 */
+	public MailPollingScheduler() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_POLLS_PER_HOST);
+	}
+
+	/**
+	 * Constructor 
+	 * @param workerThreads number of polls executed at the same time
+	 * @param maxPollsPerHost number of polls executed at the same time for a given host
+	 */
+	public MailPollingScheduler(int workerThreads, int maxPollsPerHost) {
+		super();
+		if ( workerThreads < 1 ) {
+			throw new IllegalArgumentException("invalid number of worker threads : " + workerThreads);
+		}
+		if ( maxPollsPerHost < 1 ) {
+			throw new IllegalArgumentException("invalid maxPollsPerHost : " + maxPollsPerHost);
+		}
+		this.timer = Executors.newSingleThreadScheduledExecutor();
+		this.workers = Executors.newFixedThreadPool(workerThreads);
+		this.maxPollsPerHost = maxPollsPerHost;
+	}
+
+	/**
+	 * Sets the jitter applied to each delay ( 0.1 = delay +/- 10% )
+	 * @param jitterRatio
+	 */
+	public void setJitterRatio(double jitterRatio) {
+		if ( jitterRatio < 0 || jitterRatio >= 1 ) {
+			throw new IllegalArgumentException("invalid jitter ratio : " + jitterRatio);
+		}
+		this.jitterRatio = jitterRatio;
+	}
+
+	/**
+	 * Sets the maximum delay before a new attempt for a failing account 
+	 * @param maxBackoffMillis
+	 */
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	public void setListener(MailPollingListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds an account to poll (the first poll occurs at a random time within the account interval)
+	 * @param polledAccount
+	 */
+	public void addAccount(PolledAccount polledAccount) {
+		AccountState state = new AccountState();
+		if ( accounts.putIfAbsent(polledAccount, state) == null ) {
+			long initialDelay = ThreadLocalRandom.current().nextLong(polledAccount.getIntervalMillis());
+			schedule(polledAccount, state, initialDelay);
+		}
+	}
+
+	/**
+	 * Removes an account (a poll in progress for this account is not interrupted)
+	 * @param polledAccount
+	 */
+	public void removeAccount(PolledAccount polledAccount) {
+		AccountState state = accounts.remove(polledAccount);
+		if ( state != null ) {
+			state.removed = true ;
+			ScheduledFuture<?> next = state.next;
+			if ( next != null ) {
+				next.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of accounts polled 
+	 * @return
+	 */
+	public int getAccountsCount() {
+		return accounts.size();
+	}
+	
+	private void schedule(PolledAccount polledAccount, AccountState state, long delayMillis) {
+		if ( ! state.removed ) {
+			try {
+				state.next = timer.schedule(() -> startPoll(polledAccount, state), delayMillis, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// scheduler closed
+			}
+		}
+	}
+	
+	private HostSlots getHostSlots(String host) {
+		return hostSlots.computeIfAbsent(host, h -> new HostSlots());
+	}
+
+	/**
+	 * Called by the timer thread : submits the poll to the workers if the host is not saturated, 
+	 * otherwise the account waits for the end of a poll of the host
+	 * @param polledAccount
+	 * @param state
+	 */
+	private void startPoll(PolledAccount polledAccount, AccountState state) {
+		if ( state.removed ) {
+			return;
+		}
+		HostSlots slots = getHostSlots(polledAccount.getHost());
+		synchronized (slots) {
+			if ( slots.running >= maxPollsPerHost ) {
+				// host saturated : started by 'releaseSlot' (in order of arrival)
+				slots.waiting.add(new WaitingPoll(polledAccount, state));
+				return;
+			}
+			slots.running++;
+		}
+		submitPoll(polledAccount, state, slots);
+	}
+	
+	private void submitPoll(PolledAccount polledAccount, AccountState state, HostSlots slots) {
+		try {
+			workers.execute(() -> poll(polledAccount, state, slots));
+		} catch (RejectedExecutionException e) {
+			// scheduler closed
+			synchronized (slots) {
+				slots.running--;
+			}
+		}
+	}
+	
+	/**
+	 * Called at the end of a poll : the slot is given to the first account waiting for the host (if any)
+	 * @param slots
+	 */
+	private void releaseSlot(HostSlots slots) {
+		WaitingPoll next ;
+		synchronized (slots) {
+			do {
+				next = slots.waiting.poll();
+			} while ( next != null && next.state.removed );
+			if ( next == null ) {
+				slots.running--;
+				return;
+			}
+		}
+		submitPoll(next.polledAccount, next.state, slots);
+	}
+	
+	/**
+	 * Called by a worker thread : polls the account and schedules the next poll
+	 * @param polledAccount
+	 * @param state
+	 * @param slots
+	 */
+	private void poll(PolledAccount polledAccount, AccountState state, HostSlots slots) {
+		long nextDelay = jitter(polledAccount.getIntervalMillis());
+		try {
+			int messagesProcessed = receiveMessages(polledAccount);
+			state.consecutiveFailures = 0 ;
+			notifySucceeded(polledAccount, messagesProcessed);
+		} catch (MailReceiverException e) {
+			state.consecutiveFailures++ ;
+			nextDelay = jitter(backoff(polledAccount.getIntervalMillis(), state.consecutiveFailures));
+			notifyFailed(polledAccount, e, state.consecutiveFailures, nextDelay);
+		} finally {
+			releaseSlot(slots);
+			// always rescheduled : an account is never dropped silently
+			schedule(polledAccount, state, nextDelay);
+		}
+	}
+	
+	private void notifySucceeded(PolledAccount polledAccount, int messagesProcessed) {
+		if ( listener != null ) {
+			try {
+				listener.pollSucceeded(polledAccount, messagesProcessed);
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Poll listener error", e);
+			}
+		}
+	}
+
+	private void notifyFailed(PolledAccount polledAccount, MailReceiverException error, int consecutiveFailures, long nextDelay) {
+		if ( listener != null ) {
+			try {
+				listener.pollFailed(polledAccount, error, consecutiveFailures, nextDelay);
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Poll listener error", e);
+			}
+		}
+	}
+	
+	private int receiveMessages(PolledAccount polledAccount) throws MailReceiverException {
+		try {
+			return polledAccount.getMailReceiver().receiveMessages(polledAccount.getMailAccount(), 
+					polledAccount.getFolderName(), polledAccount.isDeleteReadMessages());
+		} catch (RuntimeException e) {
+			// unexpected error : handled as a poll failure to keep the account scheduled
+			throw new MailReceiverException("Unexpected error while polling " + polledAccount.getMailAccount().getUserName(), e);
+		}
+	}
+	
+	private long backoff(long intervalMillis, int consecutiveFailures) {
+		// interval x 2^failures (shift limited to avoid overflow)
+		int shift = Math.min(consecutiveFailures, 30);
+		long delay = intervalMillis << shift ;
+		if ( delay <= 0 || delay > maxBackoffMillis ) {
+			delay = Math.max(maxBackoffMillis, intervalMillis);
+		}
+		return delay;
+	}
+	
+	private long jitter(long delayMillis) {
+		long amplitude = (long) (delayMillis * jitterRatio);
+		if ( amplitude <= 0 ) {
+			return delayMillis;
+		}
+		return delayMillis + ThreadLocalRandom.current().nextLong(-amplitude, amplitude + 1);
+	}
+	
+	/**
+	 * Stops the scheduler (the polls in progress are not interrupted)
+	 */
+	@Override
+	public void close() {
+		timer.shutdownNow();
+		workers.shutdown();
+	}
+	
+	/**
+	 * Waits for the end of the polls in progress after 'close()'
+	 * @param timeout
+	 * @param unit
+	 * @return true if all the polls are terminated
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+}
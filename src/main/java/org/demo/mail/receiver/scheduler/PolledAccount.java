@@ -0,0 +1,77 @@
+package org.demo.mail.receiver.scheduler;
+
+import org.demo.mail.receiver.MailAccount;
+import org.demo.mail.receiver.MailReceiver;
+
+/**
+ * A mail account to be polled periodically by the scheduler 
+ */
+public class PolledAccount {
+
+	private final MailReceiver mailReceiver ;
+	private final MailAccount mailAccount ;
+	private final String folderName ;
+	private final boolean deleteReadMessages ;
+	private final long intervalMillis ;
+	
+	/**
+	 * Constructor for the default mail folder : "INBOX"
+	 * @param mailReceiver the receiver to use (defines the server and the message processor)
+	 * @param mailAccount
+	 * @param deleteReadMessages
+	 * @param intervalMillis delay between 2 polls 
+	 */
+	public PolledAccount(MailReceiver mailReceiver, MailAccount mailAccount, boolean deleteReadMessages, long intervalMillis) {
+		this(mailReceiver, mailAccount, "INBOX", deleteReadMessages, intervalMillis);
+	}
+	
+	/**
+	 * Constructor 
+	 * @param mailReceiver the receiver to use (defines the server and the message processor)
+	 * @param mailAccount
+	 * @param folderName
+	 * @param deleteReadMessages
+	 * @param intervalMillis delay between 2 polls 
+	 */
+	public PolledAccount(MailReceiver mailReceiver, MailAccount mailAccount, String folderName, boolean deleteReadMessages, long intervalMillis) {
+		super();
+		if ( mailReceiver == null ) {
+			throw new IllegalArgumentException("mailReceiver is null");
+		}
+		if ( mailAccount == null ) {
+			throw new IllegalArgumentException("mailAccount is null");
+		}
+		if ( intervalMillis <= 0 ) {
+			throw new IllegalArgumentException("invalid interval : " + intervalMillis);
+		}
+		this.mailReceiver = mailReceiver;
+		this.mailAccount = mailAccount;
+		this.folderName = folderName;
+		this.deleteReadMessages = deleteReadMessages;
+		this.intervalMillis = intervalMillis;
+	}
+
+	public MailReceiver getMailReceiver() {
+		return mailReceiver;
+	}
+
+	public MailAccount getMailAccount() {
+		return mailAccount;
+	}
+
+	public String getFolderName() {
+		return folderName;
+	}
+
+	public boolean isDeleteReadMessages() {
+		return deleteReadMessages;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	public String getHost() {
+		return mailReceiver.getHost();
+	}
+}
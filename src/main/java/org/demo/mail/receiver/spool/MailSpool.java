@@ -0,0 +1,372 @@
+package org.demo.mail.receiver.spool;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.demo.mail.receiver.MailReceiverException;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+/**
+ * Append-only local spool of raw messages (RFC 822 format, as received from the server) <br>
+ * The spool is a directory of segments, each segment is made of 2 files : <br>
+ * - "segment-N.dat" : the raw messages, one after the other <br>
+ * - "segment-N.idx" : one line per message : "offset length uid" <br>
+ * A message is durable (and can be deleted from the server) once 'sync' has been called : the data file 
+ * is synchronized on the disk first, then the index lines are written and synchronized. 
+ * The index never references data that is not durable. <br>
+ * A new segment is started when the current one reaches the maximum segment size. 
+ * The segments fully consumed can be removed with 'purge'.
+ */
+public class MailSpool implements AutoCloseable {
+
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024 ;
+	
+	private static final String SEGMENT_PREFIX = "segment-" ;
+	public static final String DATA_FILE_EXTENSION  = ".dat" ;
+	public static final String INDEX_FILE_EXTENSION = ".idx" ;
+	
+	private final File directory ;
+	
+	private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE ;
+	
+	// current segment (writing)
+	private long segment = -1 ;
+	private FileChannel dataChannel ;
+	private CountingOutputStream dataStream ;
+	private int segmentEntries ;
+	
+	// index lines of the messages written and not yet synchronized 
+	private final List<MailSpoolEntry> pendingEntries = new ArrayList<>();
+	
+	/**
+	 * Constructor
+	 * @param directory the spool directory (created if necessary)
+	 */
+	public MailSpool(String directory) {
+		super();
+		if ( directory == null ) {
+			throw new IllegalArgumentException("directory is null");
+		}
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Sets the size of the data file from which a new segment is started (default = 64 MB)
+	 * @param maxSegmentSize
+	 */
+	public void setMaxSegmentSize(long maxSegmentSize) {
+		if ( maxSegmentSize < 1 ) {
+			throw new IllegalArgumentException("invalid segment size : " + maxSegmentSize);
+		}
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Appends the given message to the spool (streamed from the message 'writeTo') <br>
+	 * The message is durable only after the next 'sync'
+	 * @param uid the POP3 UID of the message (can be null)
+	 * @param message
+	 * @return the spool entry of the message
+	 * @throws MailReceiverException
+	 */
+	public synchronized MailSpoolEntry append(String uid, Message message) throws MailReceiverException {
+		try {
+			if ( dataStream == null || dataStream.count >= maxSegmentSize ) {
+				startSegment();
+			}
+			long offset = dataStream.count ;
+			message.writeTo(dataStream);
+			MailSpoolEntry entry = new MailSpoolEntry(segment, segmentEntries++, offset, dataStream.count - offset, uid);
+			pendingEntries.add(entry);
+			return entry;
+		} catch (IOException | MessagingException e) {
+			throw new MailReceiverException("Cannot write message in spool " + directory.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Makes the messages appended since the last call durable (data and index synchronized on the disk)
+	 * @return the entries of the messages made durable
+	 * @throws MailReceiverException
+	 */
+	public synchronized List<MailSpoolEntry> sync() throws MailReceiverException {
+		if ( pendingEntries.isEmpty() ) {
+			return Collections.emptyList();
+		}
+		List<MailSpoolEntry> entries = new ArrayList<>(pendingEntries);
+		try {
+			syncData();
+			writeIndex(entries);
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot synchronize spool " + directory.getAbsolutePath(), e);
+		}
+		pendingEntries.clear();
+		return entries;
+	}
+	
+	/**
+	 * Discards the given messages appended since the last 'sync' (after a failed reception) : they are never indexed, 
+	 * their data stays unreferenced in the data file <br>
+	 * The messages appended by other receivers sharing the spool are kept
+	 * @param entries the entries returned by 'append' and not yet synchronized
+	 */
+	public synchronized void discard(Collection<MailSpoolEntry> entries) {
+		pendingEntries.removeAll(entries);
+	}
+	
+	private void syncData() throws IOException {
+		if ( dataStream != null ) {
+			dataStream.flush();
+			dataChannel.force(false);
+		}
+	}
+	
+	private void writeIndex(List<MailSpoolEntry> entries) throws IOException {
+		// the entries can belong to 2 segments (segment started since the last sync)
+		long currentSegment = -1 ;
+		StringBuilder sb = new StringBuilder();
+		for ( MailSpoolEntry entry : entries ) {
+			if ( entry.getSegment() != currentSegment && sb.length() > 0 ) {
+				appendIndex(currentSegment, sb);
+				sb.setLength(0);
+			}
+			currentSegment = entry.getSegment();
+			sb.append(entry.getOffset()).append(' ').append(entry.getLength()).append(' ')
+				.append(entry.getUid() != null ? entry.getUid() : "-").append('\n');
+		}
+		appendIndex(currentSegment, sb);
+	}
+	
+	private void appendIndex(long segmentNumber, CharSequence lines) throws IOException {
+		try ( FileChannel channel = FileChannel.open(indexFile(segmentNumber).toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND) ) {
+			channel.write(StandardCharsets.US_ASCII.encode(lines.toString()));
+			channel.force(false);
+		}
+	}
+	
+	private void startSegment() throws IOException {
+		if ( dataStream != null ) {
+			// the previous segment is closed (its pending entries are indexed at the next 'sync')
+			syncData();
+			dataStream.close();
+		}
+		if ( ! directory.exists() ) {
+			directory.mkdirs();
+		}
+		List<Long> segments = listSegments();
+		segment = Math.max(segment, segments.isEmpty() ? 0 : segments.get(segments.size() - 1)) + 1 ;
+		segmentEntries = 0 ;
+		dataChannel = FileChannel.open(dataFile(segment).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		dataStream = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(dataChannel), 64 * 1024));
+	}
+	
+	/**
+	 * Returns the durable entries of the spool (in the order they were appended)
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	public List<MailSpoolEntry> entries() throws MailReceiverException {
+		List<MailSpoolEntry> entries = new ArrayList<>();
+		for ( long segmentNumber : listSegments() ) {
+			entries.addAll(readIndex(segmentNumber));
+		}
+		return entries;
+	}
+	
+	private List<MailSpoolEntry> readIndex(long segmentNumber) throws MailReceiverException {
+		List<MailSpoolEntry> entries = new ArrayList<>();
+		File indexFile = indexFile(segmentNumber);
+		if ( indexFile.exists() ) {
+			try ( BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.US_ASCII) ) {
+				String line ;
+				while ( ( line = reader.readLine() ) != null ) {
+					String[] fields = line.split(" ");
+					if ( fields.length == 3 ) {
+						String uid = "-".equals(fields[2]) ? null : fields[2] ;
+						entries.add(new MailSpoolEntry(segmentNumber, entries.size(), 
+								Long.parseLong(fields[0]), Long.parseLong(fields[1]), uid));
+					}
+				}
+			} catch (IOException | NumberFormatException e) {
+				throw new MailReceiverException("Cannot read spool index " + indexFile.getAbsolutePath(), e);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Opens the raw message of the given entry 
+	 * @param entry
+	 * @return
+	 * @throws MailReceiverException
+	 */
+	public InputStream open(MailSpoolEntry entry) throws MailReceiverException {
+		File dataFile = dataFile(entry.getSegment());
+		try {
+			FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+			channel.position(entry.getOffset());
+			return new BoundedInputStream(Channels.newInputStream(channel), entry.getLength());
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot read spool file " + dataFile.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Removes the segments whose entries are all before the given entry (already consumed) <br>
+	 * The segment being written is never removed
+	 * @param firstEntryToKeep
+	 * @return the number of segments removed
+	 */
+	public synchronized int purge(MailSpoolEntry firstEntryToKeep) {
+		int removed = 0 ;
+		for ( long segmentNumber : listSegments() ) {
+			if ( segmentNumber < firstEntryToKeep.getSegment() && segmentNumber != segment ) {
+				indexFile(segmentNumber).delete();
+				dataFile(segmentNumber).delete();
+				removed++;
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Returns the numbers of the segments in the spool directory (sorted)
+	 * @return
+	 */
+	public List<Long> listSegments() {
+		List<Long> segments = new ArrayList<>();
+		String[] fileNames = directory.list();
+		if ( fileNames != null ) {
+			for ( String fileName : fileNames ) {
+				if ( fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(DATA_FILE_EXTENSION) ) {
+					try {
+						segments.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), 
+								fileName.length() - DATA_FILE_EXTENSION.length())));
+					} catch (NumberFormatException e) {
+						// not a segment file
+					}
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+	
+	public File dataFile(long segmentNumber) {
+		return new File(directory, segmentName(segmentNumber) + DATA_FILE_EXTENSION);
+	}
+
+	public File indexFile(long segmentNumber) {
+		return new File(directory, segmentName(segmentNumber) + INDEX_FILE_EXTENSION);
+	}
+	
+	private String segmentName(long segmentNumber) {
+		return String.format("%s%06d", SEGMENT_PREFIX, segmentNumber);
+	}
+
+	/**
+	 * Synchronizes the pending messages and closes the current segment
+	 */
+	@Override
+	public synchronized void close() throws MailReceiverException {
+		sync();
+		if ( dataStream != null ) {
+			try {
+				dataStream.close();
+			} catch (IOException e) {
+				throw new MailReceiverException("Cannot close spool " + directory.getAbsolutePath(), e);
+			} finally {
+				dataStream = null;
+				dataChannel = null;
+			}
+		}
+	}
+	
+	/**
+	 * Output stream counting the bytes written (position in the data file)
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		
+		private long count = 0 ;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len ;
+		}
+	}
+	
+	/**
+	 * Input stream limited to the given number of bytes (one message in the data file)
+	 */
+	private static class BoundedInputStream extends InputStream {
+		
+		private final InputStream in ;
+		private long remaining ;
+		
+		BoundedInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if ( remaining <= 0 ) {
+				return -1;
+			}
+			int b = in.read();
+			if ( b >= 0 ) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if ( remaining <= 0 ) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if ( n > 0 ) {
+				remaining -= n ;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package org.demo.mail.receiver.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+import org.demo.mail.receiver.MailFailurePolicy;
+import org.demo.mail.receiver.MailMessage;
+import org.demo.mail.receiver.MailMessageProcessor;
+import org.demo.mail.receiver.MailReceiverException;
+import org.demo.mail.receiver.attachment.AttachmentStore;
+import org.demo.mail.receiver.builder.MailMessageBuilder;
+import org.demo.mail.receiver.deadletter.DeadLetterQueue;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedFileInputStream;
+
+/**
+ * Consumer of a mail spool : parses the spooled messages with 'MailMessageBuilder' and gives them to the processor, 
+ * independently of the POP3 reception <br>
+ * The position of the next message to consume is saved in a checkpoint file ("consumer.checkpoint" in the spool directory). 
+ * With the 'ABORT' failure policy (default) the consumption stops at the first message not processed successfully 
+ * (it will be the first message of the next call). With the 'CONTINUE' policy a message that cannot be parsed 
+ * or processed is recorded in the dead-letter queue (if any) and the consumption goes on with the next message. <br>
+ * The messages are read from the segment files without being copied in memory ( 'SharedFileInputStream' ).
+ */
+public class MailSpoolConsumer {
+
+	public static final String CHECKPOINT_FILE = "consumer.checkpoint" ;
+	
+	private static final int CHECKPOINT_INTERVAL = 100 ;
+	
+	private final MailSpool spool ;
+	private final MailMessageBuilder mailMessageBuilder ;
+	private final AttachmentStore attachmentStore ;
+	private final MailMessageProcessor processor ;
+	private final File checkpointFile ;
+	private final Session session = Session.getInstance(new Properties());
+	
+	private MailFailurePolicy failurePolicy = MailFailurePolicy.ABORT ;
+	
+	private DeadLetterQueue deadLetterQueue = null ;
+	
+	/**
+	 * Constructor
+	 * @param spool
+	 * @param mailMessageBuilder
+	 * @param attachmentStore
+	 * @param processor
+	 */
+	public MailSpoolConsumer(MailSpool spool, MailMessageBuilder mailMessageBuilder, AttachmentStore attachmentStore, 
+			MailMessageProcessor processor) {
+		super();
+		this.spool = spool;
+		this.mailMessageBuilder = mailMessageBuilder;
+		this.attachmentStore = attachmentStore;
+		this.processor = processor;
+		this.checkpointFile = new File(spool.getDirectory(), CHECKPOINT_FILE);
+	}
+
+	/**
+	 * Sets the behavior when a spooled message cannot be parsed or processed (default = ABORT) <br>
+	 * ABORT : the consumption stops (exception thrown, or no exception if the processor returns false) 
+	 * and the message is retried at the next call. <br>
+	 * CONTINUE : the message is recorded in the dead-letter queue (if any) and skipped, 
+	 * it is never retried from the spool. 
+	 * @param failurePolicy
+	 */
+	public void setFailurePolicy(MailFailurePolicy failurePolicy) {
+		this.failurePolicy = ( failurePolicy != null ) ? failurePolicy : MailFailurePolicy.ABORT ;
+	}
+
+	/**
+	 * Sets the dead-letter queue keeping the messages skipped with the CONTINUE policy <br>
+	 * (the key of a message is its POP3 UID if known, its position in the spool otherwise)
+	 * @param deadLetterQueue the dead-letter queue (null for none : the skipped messages are lost)
+	 */
+	public void setDeadLetterQueue(DeadLetterQueue deadLetterQueue) {
+		this.deadLetterQueue = deadLetterQueue;
+	}
+
+	/**
+	 * Processes the messages spooled since the last call <br>
+	 * The segments fully consumed are removed from the spool
+	 * @return the number of messages processed successfully
+	 * @throws MailReceiverException
+	 */
+	public int consume() throws MailReceiverException {
+		MailSpoolEntry checkpoint = readCheckpoint();
+		List<MailSpoolEntry> entries = spool.entries();
+		int processed = 0 ;
+		// processed or skipped (checkpoint interval)
+		int handled = 0 ;
+		long openSegment = -1 ;
+		SharedFileInputStream segmentStream = null ;
+		try {
+			for ( MailSpoolEntry entry : entries ) {
+				if ( checkpoint != null && entry.compareTo(checkpoint) < 0 ) {
+					continue; // already consumed
+				}
+				if ( entry.getSegment() != openSegment ) {
+					closeQuietly(segmentStream);
+					segmentStream = new SharedFileInputStream(spool.dataFile(entry.getSegment()));
+					openSegment = entry.getSegment();
+				}
+				MimeMessage message = null ;
+				boolean processingOK = false ;
+				Exception failure = null ;
+				try {
+					message = parseMessage(segmentStream, entry);
+					MailMessage mailMessage = mailMessageBuilder.buildMailMessage(message, attachmentStore);
+					processingOK = processor.processMessage(mailMessage);
+				} catch (Exception e) {
+					failure = e ;
+				}
+				if ( ! processingOK ) {
+					if ( failurePolicy == MailFailurePolicy.ABORT ) {
+						// not processed : retried at the next call
+						checkpoint = entry ;
+						if ( failure != null ) {
+							throw new MailReceiverException("Cannot process spooled message " + entry, failure);
+						}
+						break;
+					}
+					// CONTINUE : kept in the dead-letter queue and skipped
+					deadLetter(entry, message, ( failure != null ) ? failure : new MailReceiverException("Message not processed"));
+				}
+				else {
+					processed++;
+				}
+				checkpoint = next(entry) ;
+				handled++;
+				if ( handled % CHECKPOINT_INTERVAL == 0 ) {
+					writeCheckpoint(checkpoint);
+				}
+			}
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot read spool " + spool.getDirectory().getAbsolutePath(), e);
+		} finally {
+			closeQuietly(segmentStream);
+			if ( checkpoint != null ) {
+				writeCheckpoint(checkpoint);
+			}
+		}
+		if ( checkpoint != null ) {
+			spool.purge(checkpoint);
+		}
+		return processed;
+	}
+	
+	private MimeMessage parseMessage(SharedFileInputStream segmentStream, MailSpoolEntry entry) throws MailReceiverException {
+		InputStream in = segmentStream.newStream(entry.getOffset(), entry.getOffset() + entry.getLength());
+		try {
+			return new MimeMessage(session, in);
+		} catch (MessagingException | RuntimeException e) {
+			throw new MailReceiverException("Cannot read spooled message " + entry, e);
+		}
+	}
+	
+	/**
+	 * Records a skipped message in the dead-letter queue (if any)
+	 * @param entry
+	 * @param message the parsed message (null if it cannot be parsed : only the failure is recorded)
+	 * @param failure
+	 * @throws MailReceiverException
+	 */
+	private void deadLetter(MailSpoolEntry entry, MimeMessage message, Exception failure) throws MailReceiverException {
+		if ( deadLetterQueue != null ) {
+			String key = ( entry.getUid() != null ) ? entry.getUid() : "spool-" + entry.getSegment() + "-" + entry.getIndex() ;
+			String messageId = null ;
+			if ( message != null ) {
+				try {
+					messageId = message.getMessageID();
+				} catch (MessagingException e) {
+					// unknown Message-ID
+				}
+			}
+			deadLetterQueue.record(key, message, messageId, failure);
+		}
+	}
+	
+	private MailSpoolEntry next(MailSpoolEntry entry) {
+		return new MailSpoolEntry(entry.getSegment(), entry.getIndex() + 1, 0, 0, null);
+	}
+	
+	private MailSpoolEntry readCheckpoint() throws MailReceiverException {
+		if ( ! checkpointFile.exists() ) {
+			return null;
+		}
+		try {
+			String[] fields = new String(Files.readAllBytes(checkpointFile.toPath()), StandardCharsets.US_ASCII).trim().split(" ");
+			return new MailSpoolEntry(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), 0, 0, null);
+		} catch (IOException | RuntimeException e) {
+			throw new MailReceiverException("Cannot read checkpoint file " + checkpointFile.getAbsolutePath(), e);
+		}
+	}
+	
+	private void writeCheckpoint(MailSpoolEntry checkpoint) throws MailReceiverException {
+		File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+		try {
+			Files.write(tmpFile.toPath(), (checkpoint.getSegment() + " " + checkpoint.getIndex() + "\n").getBytes(StandardCharsets.US_ASCII));
+			Files.move(tmpFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new MailReceiverException("Cannot write checkpoint file " + checkpointFile.getAbsolutePath(), e);
+		}
+	}
+	
+	private void closeQuietly(SharedFileInputStream segmentStream) {
+		if ( segmentStream != null ) {
+			try {
+				segmentStream.close();
+			} catch (IOException e) {
+				// ignored 
+			}
+		}
+	}
+}
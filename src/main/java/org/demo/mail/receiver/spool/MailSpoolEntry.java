@@ -0,0 +1,65 @@
+package org.demo.mail.receiver.spool;
+
+/**
+ * Location of a raw message in the spool ( segment number, offset and length in the segment data file )
+ */
+public class MailSpoolEntry implements Comparable<MailSpoolEntry> {
+
+	private final long segment ;
+	private final int index ;
+	private final long offset ;
+	private final long length ;
+	private final String uid ;
+	
+	public MailSpoolEntry(long segment, int index, long offset, long length, String uid) {
+		super();
+		this.segment = segment;
+		this.index = index;
+		this.offset = offset;
+		this.length = length;
+		this.uid = uid;
+	}
+
+	/**
+	 * Returns the segment number
+	 * @return
+	 */
+	public long getSegment() {
+		return segment;
+	}
+
+	/**
+	 * Returns the position of the entry in its segment (0 for the first message)
+	 * @return
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the POP3 UID of the message (or null if unknown)
+	 * @return
+	 */
+	public String getUid() {
+		return uid;
+	}
+
+	@Override
+	public int compareTo(MailSpoolEntry other) {
+		int c = Long.compare(segment, other.segment);
+		return ( c != 0 ) ? c : Integer.compare(index, other.index);
+	}
+
+	@Override
+	public String toString() {
+		return segment + ":" + index + " (" + length + " bytes)" ;
+	}
+}